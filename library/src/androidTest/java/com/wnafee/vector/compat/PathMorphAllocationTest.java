@@ -0,0 +1,52 @@
+package com.wnafee.vector.compat;
+
+import android.animation.ObjectAnimator;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import com.wnafee.vector.R;
+
+public class PathMorphAllocationTest extends AndroidTestCase {
+
+    private static final int SIZE = 96;
+    private static final int FRAMES = 60;
+
+    public void testMorphFramesDoNotAllocate() {
+        final Resources res = getContext().getResources();
+        final VectorDrawable drawable =
+                (VectorDrawable) VectorDrawable.create(res, R.drawable.ic_play_vector).mutate();
+        drawable.setAllowCaching(false);
+        drawable.setBounds(0, 0, SIZE, SIZE);
+
+        final Object target = drawable.getTargetByName("v");
+        final ObjectAnimator animator = (ObjectAnimator) PathAnimatorInflater.loadAnimator(
+                getContext(), res, null, R.anim.play_to_pause_path, drawable.getPixelSize(),
+                target);
+        animator.setTarget(target);
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+
+        // The first frames set up the animator and the renderer's scratch objects.
+        runFrames(animator, drawable, canvas);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        runFrames(animator, drawable, canvas);
+        final int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        assertEquals("allocations while evaluating and drawing " + FRAMES + " morph frames",
+                0, allocations);
+    }
+
+    private static void runFrames(ObjectAnimator animator, VectorDrawable drawable,
+                                  Canvas canvas) {
+        final long duration = animator.getDuration();
+        for (int i = 0; i <= FRAMES; i++) {
+            animator.setCurrentPlayTime(duration * i / FRAMES);
+            drawable.draw(canvas);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.wnafee.vector.compat;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import junit.framework.TestCase;
+
+public class PathParserTest extends TestCase {
+
+    private static final int SIZE = 64;
+
+    // The first contour ends away from its start, so the relative moveTo after
+    // the close depends on which point it is relative to.
+    private static final String CLOSE_THEN_RELATIVE = "M2,2 L30,2 L30,30 z m4,4 l10,0 l0,10 z";
+
+    // Anti-aliased edges of a primitive and of the equivalent path may differ
+    // by up to a quarter of a pixel's coverage. Other pixels must match.
+    private static final int MAX_EDGE_ALPHA_DIFFERENCE = 64;
+
+    public void testParseExponents() {
+        // 'e' and 'E' belong to the number instead of starting a command.
+        assertParsed("M1e-3,2E+2 L2e2,-1.5E-1 z", "MLz",
+                new float[] {1e-3f, 200f}, new float[] {200f, -0.15f}, new float[0]);
+        assertParsed("M1e5 2", "M", new float[] {100000f, 2f});
+    }
+
+    public void testParsePackedDecimals() {
+        // A second '.' starts the next number.
+        assertParsed("M.5.5 L1.5.25.75z", "MLz",
+                new float[] {0.5f, 0.5f}, new float[] {1.5f, 0.25f, 0.75f}, new float[0]);
+        assertParsed("m0.5.5.5.5", "m", new float[] {0.5f, 0.5f, 0.5f, 0.5f});
+    }
+
+    public void testParseImplicitSeparators() {
+        assertParsed("M1-2-3-4", "M", new float[] {1f, -2f, -3f, -4f});
+        assertParsed("M-.5-.5", "M", new float[] {-0.5f, -0.5f});
+        assertParsed("M1+2 L+3+4", "ML", new float[] {1f, 2f}, new float[] {3f, 4f});
+        assertParsed("M1,2 l-1-2zm3,4", "Mlzm", new float[] {1f, 2f}, new float[] {-1f, -2f},
+                new float[0], new float[] {3f, 4f});
+    }
+
+    public void testParseCommasAndWhitespace() {
+        assertParsed("M1,2 L3 , 4\tL5\n6,,7 8", "MLL", new float[] {1f, 2f},
+                new float[] {3f, 4f}, new float[] {5f, 6f, 7f, 8f});
+        assertParsed("  M 1 2 z  ", "Mz", new float[] {1f, 2f}, new float[0]);
+        // Close commands ignore anything up to the next command.
+        assertParsed("M1 2 z 3 4", "Mz", new float[] {1f, 2f}, new float[0]);
+    }
+
+    public void testParseMalformedNumbers() {
+        assertMalformed("M1,2 L#,4");
+        assertMalformed("M1-");
+        assertMalformed("M1,2 L3,-");
+        assertMalformed("M.,1");
+        assertMalformed("M1,2 L3+,4");
+    }
+
+    public void testNormalizeAllKeepsCurrentPointAfterClose() {
+        assertSameRendering(CLOSE_THEN_RELATIVE, PathParser.NORMALIZE_ALL);
+    }
+
+    public void testNormalizeArcsKeepsCurrentPointAfterClose() {
+        assertSameRendering("M2,2 L30,2 L30,30 z a8,8 0 0 1 16,16 z", PathParser.NORMALIZE_ARCS);
+        assertSameRendering("M2,2 L30,2 L30,30 z a8,8 0 0 1 16,16 z", PathParser.NORMALIZE_ALL);
+    }
+
+    public void testNormalizeAllSmoothCurvesAndShorthands() {
+        assertSameRendering("M4,4 h20 v20 c4,4 8,4 12,0 s8,-4 12,0 q4,4 8,0 t8,0 z",
+                PathParser.NORMALIZE_ALL);
+    }
+
+    public void testTransformKeepsCurrentPointAfterClose() {
+        // Folding a static group into its paths must draw exactly what the
+        // group's matrix applied to the original path draws.
+        final Matrix matrix = new Matrix();
+        matrix.setScale(1.5f, 1.5f);
+        matrix.postTranslate(3, 1);
+
+        final PathParser.PathData data =
+                PathParser.createPathDataFromPathData(CLOSE_THEN_RELATIVE);
+        final Path expected = new Path();
+        data.toPath(expected);
+        expected.transform(matrix);
+        final Path actual = new Path();
+        PathParser.transformPathData(data, matrix).toPath(actual);
+        assertTrue(render(expected).sameAs(render(actual)));
+    }
+
+    public void testMoveToPairsAreNotShapes() {
+        // Every extra pair of a moveTo starts a new subpath, so these draw nothing.
+        assertEquals(PathParser.SHAPE_PATH, PathParser.getShape(
+                PathParser.createPathDataFromPathData("M0 0 10 0 10 10 0 10z"), new RectF()));
+        assertEquals(PathParser.SHAPE_PATH, PathParser.getShape(
+                PathParser.createPathDataFromPathData("m0 0 10 0 10 10 0 10z"), new RectF()));
+        assertEquals(PathParser.SHAPE_PATH, PathParser.getShape(
+                PathParser.createPathDataFromPathData("M2,2 10,10"), new RectF()));
+    }
+
+    public void testFilledRectMatchesPath() {
+        assertShapeMatchesPath("M2,3 L18,3 L18,15 L2,15 z", PathParser.SHAPE_RECT,
+                createPaint(Paint.Style.FILL, 0));
+        assertShapeMatchesPath("M2,3 h16 v12 h-16 z", PathParser.SHAPE_RECT,
+                createPaint(Paint.Style.FILL, 0));
+    }
+
+    public void testFilledOvalMatchesPath() {
+        assertShapeMatchesPath("M2,8 a8,5 0 1,0 16,0 a8,5 0 1,0 -16,0 z",
+                PathParser.SHAPE_OVAL, createPaint(Paint.Style.FILL, 0));
+    }
+
+    public void testFilledCircleMatchesPath() {
+        assertShapeMatchesPath("M4,10 A6,6 0 1,1 16,10 A6,6 0 1,1 4,10 z",
+                PathParser.SHAPE_OVAL, createPaint(Paint.Style.FILL, 0));
+    }
+
+    public void testLineMatchesPath() {
+        assertShapeMatchesPath("M2,2 L18,14", PathParser.SHAPE_LINE,
+                createPaint(Paint.Style.STROKE, 3));
+    }
+
+    public void testStrokedShapesMatchPath() {
+        assertShapeMatchesPath("M2,3 L18,3 L18,15 L2,15 z", PathParser.SHAPE_RECT,
+                createPaint(Paint.Style.STROKE, 3));
+        assertShapeMatchesPath("M2,8 a8,5 0 1,0 16,0 a8,5 0 1,0 -16,0 z",
+                PathParser.SHAPE_OVAL, createPaint(Paint.Style.STROKE, 3));
+    }
+
+    public void testHairlineShapesMatchPath() {
+        assertShapeMatchesPath("M2,3 L18,3 L18,15 L2,15 z", PathParser.SHAPE_RECT,
+                createPaint(Paint.Style.STROKE, 0));
+        assertShapeMatchesPath("M2,2 L18,14", PathParser.SHAPE_LINE,
+                createPaint(Paint.Style.STROKE, 0));
+    }
+
+    private static void assertSameRendering(String pathData, int normalization) {
+        final Path expected = new Path();
+        PathParser.createPathDataFromPathData(pathData).toPath(expected);
+        final Path actual = new Path();
+        PathParser.createPathDataFromPathData(pathData, normalization).toPath(actual);
+        assertTrue(pathData + " changed once normalized",
+                render(expected).sameAs(render(actual)));
+    }
+
+    private static void assertParsed(String pathData, String types, float[]... params) {
+        final PathParser.PathData data = PathParser.createPathDataFromPathData(pathData);
+        assertEquals(pathData, types.length(), data.mTypes.length);
+        for (int i = 0; i < types.length(); i++) {
+            assertEquals(pathData, types.charAt(i), (char) data.mTypes[i]);
+            final int offset = data.mOffsets[i];
+            assertEquals(pathData, params[i].length, data.mOffsets[i + 1] - offset);
+            for (int j = 0; j < params[i].length; j++) {
+                assertEquals(pathData, params[i][j], data.mParams[offset + j], 0f);
+            }
+        }
+    }
+
+    private static void assertMalformed(String pathData) {
+        try {
+            PathParser.createPathDataFromPathData(pathData);
+            fail(pathData + " was parsed");
+        } catch (NumberFormatException e) {
+            // Expected, the same exception Float.parseFloat() used to throw.
+        }
+    }
+
+    /**
+     * Draw a recognized shape the way the renderer does, with the primitive
+     * for its kind, and compare it against drawing the same path data as a
+     * Path under the same matrix.
+     */
+    private static void assertShapeMatchesPath(String pathData, int expectedShape, Paint paint) {
+        final PathParser.PathData data = PathParser.createPathDataFromPathData(pathData);
+        final RectF bounds = new RectF();
+        assertEquals(pathData, expectedShape, PathParser.getShape(data, bounds));
+
+        final Matrix matrix = new Matrix();
+        matrix.setScale(2.5f, 2f);
+        matrix.postTranslate(3, 5);
+
+        final Path path = new Path();
+        data.toPath(path);
+        path.transform(matrix);
+        final Bitmap expected = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        new Canvas(expected).drawPath(path, paint);
+
+        final Bitmap actual = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(actual);
+        if (expectedShape == PathParser.SHAPE_LINE) {
+            final float[] points = {bounds.left, bounds.top, bounds.right, bounds.bottom};
+            matrix.mapPoints(points);
+            canvas.drawLine(points[0], points[1], points[2], points[3], paint);
+        } else {
+            matrix.mapRect(bounds);
+            if (expectedShape == PathParser.SHAPE_RECT) {
+                canvas.drawRect(bounds, paint);
+            } else {
+                canvas.drawOval(bounds, paint);
+            }
+        }
+
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                final int difference = Math.abs(Color.alpha(expected.getPixel(x, y))
+                        - Color.alpha(actual.getPixel(x, y)));
+                final int maxDifference = isEdge(expected, x, y) ? MAX_EDGE_ALPHA_DIFFERENCE : 0;
+                if (difference > maxDifference) {
+                    fail(pathData + " differs from its path at (" + x + ", " + y + ")");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the pixel is partially covered, or next to a pixel whose
+     * coverage differs from its own.
+     */
+    private static boolean isEdge(Bitmap bitmap, int x, int y) {
+        final int alpha = Color.alpha(bitmap.getPixel(x, y));
+        if (alpha != 0 && alpha != 255) {
+            return true;
+        }
+        for (int j = Math.max(y - 1, 0); j <= Math.min(y + 1, SIZE - 1); j++) {
+            for (int i = Math.max(x - 1, 0); i <= Math.min(x + 1, SIZE - 1); i++) {
+                if (Color.alpha(bitmap.getPixel(i, j)) != alpha) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Paint createPaint(Paint.Style style, float strokeWidth) {
+        final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.BLACK);
+        paint.setStyle(style);
+        paint.setStrokeWidth(strokeWidth);
+        return paint;
+    }
+
+    private static Bitmap render(Path path) {
+        final Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        final Paint paint = new Paint();
+        paint.setColor(Color.BLACK);
+        new Canvas(bitmap).drawPath(path, paint);
+        return bitmap;
+    }
+}
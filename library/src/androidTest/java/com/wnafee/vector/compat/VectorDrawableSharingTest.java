@@ -0,0 +1,57 @@
+package com.wnafee.vector.compat;
+
+import android.animation.ObjectAnimator;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.test.AndroidTestCase;
+
+import com.wnafee.vector.test.R;
+
+public class VectorDrawableSharingTest extends AndroidTestCase {
+
+    private static final int SIZE = 96;
+
+    public void testCopiesAnimateSameGroupIndependently() {
+        final VectorDrawable source =
+                VectorDrawable.create(getContext().getResources(), R.drawable.nested_groups_vector);
+        final VectorDrawable first = createCopy(source);
+        final VectorDrawable second = createCopy(source);
+
+        // Owning the path also owns the outer group, as its ancestor, while
+        // the inner group is still shared with the other copies.
+        first.getTargetByName("bar");
+        final Object firstOuter = first.getTargetByName("outer");
+        final Object secondOuter = second.getTargetByName("outer");
+
+        final Bitmap secondBefore = render(second);
+        rotate(firstOuter, 90);
+        final Bitmap firstRotated = render(first);
+        assertTrue("rotating one copy's group changed another copy",
+                secondBefore.sameAs(render(second)));
+
+        rotate(secondOuter, 180);
+        render(second);
+        assertTrue("rotating one copy's group changed another copy",
+                firstRotated.sameAs(render(first)));
+        assertFalse(firstRotated.sameAs(secondBefore));
+    }
+
+    private static VectorDrawable createCopy(VectorDrawable source) {
+        final VectorDrawable copy =
+                (VectorDrawable) source.getConstantState().newDrawable().mutate();
+        copy.setAllowCaching(false);
+        copy.setBounds(0, 0, SIZE, SIZE);
+        return copy;
+    }
+
+    private static void rotate(Object group, float degrees) {
+        final ObjectAnimator animator = ObjectAnimator.ofFloat(group, "rotation", 0, degrees);
+        animator.setCurrentPlayTime(animator.getDuration());
+    }
+
+    private static Bitmap render(VectorDrawable drawable) {
+        final Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        drawable.draw(new Canvas(bitmap));
+        return bitmap;
+    }
+}
@@ -35,7 +35,6 @@ import android.graphics.Rect;
 import android.graphics.drawable.Animatable;
 import android.graphics.drawable.Drawable;
 import android.support.annotation.NonNull;
-import android.support.v4.util.ArrayMap;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.util.Xml;
@@ -52,6 +51,8 @@ public class AnimatedVectorDrawable extends DrawableCompat implements Animatable
 
     private static final boolean DBG_ANIMATION_VECTOR_DRAWABLE = false;
 
+    private static int sMorphTableBudget;
+
     private AnimatedVectorDrawableState mAnimatedVectorState;
 
     private boolean mMutated;
@@ -217,6 +218,8 @@ public class AnimatedVectorDrawable extends DrawableCompat implements Animatable
 
         int eventType = parser.getEventType();
         float pathErrorScale = 1;
+        final PathAnimatorInflater.MorphTableBudget morphTableBudget = sMorphTableBudget > 0
+                ? new PathAnimatorInflater.MorphTableBudget(sMorphTableBudget) : null;
         while (eventType != XmlPullParser.END_DOCUMENT) {
             if (eventType == XmlPullParser.START_TAG) {
                 final String tagName = parser.getName();
@@ -243,10 +246,14 @@ public class AnimatedVectorDrawable extends DrawableCompat implements Animatable
                     if (id != 0) {
                         //path animators require separate handling
                         Animator objectAnimator;
+                        final Object targetObject =
+                                mAnimatedVectorState.mVectorDrawable.findTargetByName(target);
                         if (isPath(target)) {
-                            objectAnimator = getPathAnimator(c, res, theme, id, pathErrorScale);
+                            objectAnimator = getPathAnimator(c, res, theme, id, pathErrorScale,
+                                    targetObject, morphTableBudget);
                         } else {
                             objectAnimator = AnimatorInflater.loadAnimator(c, id);
+                            VectorDrawable.bindAnimatedProperties(objectAnimator, targetObject);
                         }
                         setupAnimatorsForTarget(target, objectAnimator);
                     }
@@ -256,15 +263,34 @@ public class AnimatedVectorDrawable extends DrawableCompat implements Animatable
 
             eventType = parser.next();
         }
+
+        mAnimatedVectorState.updateAnimatedTargets();
     }
 
     public boolean isPath(String target) {
-        Object o = mAnimatedVectorState.mVectorDrawable.getTargetByName(target);
+        Object o = mAnimatedVectorState.mVectorDrawable.findTargetByName(target);
         return (o instanceof VectorDrawable.VFullPath);
     }
 
-    Animator getPathAnimator(Context c, Resources res, Theme theme, int id, float pathErrorScale) {
-        return PathAnimatorInflater.loadAnimator(c, res, theme, id, pathErrorScale);
+    Animator getPathAnimator(Context c, Resources res, Theme theme, int id, float pathErrorScale,
+                             Object target, PathAnimatorInflater.MorphTableBudget budget) {
+        return PathAnimatorInflater.loadAnimator(c, res, theme, id, pathErrorScale, target,
+                budget);
+    }
+
+    /**
+     * Let every animated vector inflated from now on bake its path morphs, up to
+     * <code>maxBytes</code> per drawable. A baked morph keeps the Paths it went
+     * through, sampled finely enough to be off by less than a pixel at the
+     * intrinsic size, so that playing it again draws them instead of building
+     * new ones. This suits drawables toggling between the same shapes over and
+     * over. Copies of a drawable share its baked morphs. Baking is off by default.
+     *
+     * @param maxBytes The memory each drawable may spend on baked morphs, 0 to
+     *                 disable baking.
+     */
+    public static void setMorphTableBudget(int maxBytes) {
+        sMorphTableBudget = maxBytes;
     }
 
     @Override
@@ -287,8 +313,9 @@ public class AnimatedVectorDrawable extends DrawableCompat implements Animatable
     private static class AnimatedVectorDrawableState extends Drawable.ConstantState {
         int mChangingConfigurations;
         VectorDrawable mVectorDrawable;
+        AnimationTemplate mTemplate;
+        // This drawable's own animators, only created once it is animated.
         ArrayList<Animator> mAnimators;
-        ArrayMap<Animator, String> mTargetNameMap;
 
         public AnimatedVectorDrawableState(AnimatedVectorDrawableState copy) {
             if (copy != null) {
@@ -299,23 +326,55 @@ public class AnimatedVectorDrawable extends DrawableCompat implements Animatable
                     mVectorDrawable.setAllowCaching(false);
                     mVectorDrawable.setBounds(copy.mVectorDrawable.getBounds());
                 }
-                if (copy.mAnimators != null) {
-                    final int numAnimators = copy.mAnimators.size();
-                    mAnimators = new ArrayList<Animator>(numAnimators);
-                    mTargetNameMap = new ArrayMap<Animator, String>(numAnimators);
-                    for (int i = 0; i < numAnimators; ++i) {
-                        Animator anim = copy.mAnimators.get(i);
-                        Animator animClone = anim.clone();
-                        String targetName = copy.mTargetNameMap.get(anim);
-                        Object targetObject = mVectorDrawable.getTargetByName(targetName);
-                        animClone.setTarget(targetObject);
-                        mAnimators.add(animClone);
-                        mTargetNameMap.put(animClone, targetName);
-                    }
+                // The animators are only cloned once this copy is animated, but
+                // their targets are owned right away.
+                mTemplate = copy.mTemplate;
+                if (mVectorDrawable != null) {
+                    updateAnimatedTargets();
                 }
             } else {
                 mVectorDrawable = new VectorDrawable();
+                mTemplate = new AnimationTemplate();
+            }
+        }
+
+        /**
+         * @return the animators of this drawable, cloned from the template and
+         * bound to their targets the first time they are needed.
+         */
+        ArrayList<Animator> getAnimators() {
+            if (mAnimators == null) {
+                final ArrayList<Animator> templates = mTemplate.mAnimators;
+                final int numAnimators = templates.size();
+                mAnimators = new ArrayList<Animator>(numAnimators);
+                for (int i = 0; i < numAnimators; ++i) {
+                    Animator animClone = templates.get(i).clone();
+                    String targetName = mTemplate.mTargetNames.get(i);
+                    Object targetObject = mVectorDrawable.getTargetByName(targetName);
+                    animClone.setTarget(targetObject);
+                    mAnimators.add(animClone);
+                }
+            }
+            return mAnimators;
+        }
+
+        /**
+         * Take ownership of every animated part of the tree and let the vector
+         * drawable know about them, so it can cache the rest.
+         */
+        void updateAnimatedTargets() {
+            // The targets must be owned before anything is drawn: while shared,
+            // they are the nodes the drawable this state was copied from
+            // animates. Only cloning the animators is left for later.
+            final ArrayList<Object> targets = new ArrayList<Object>();
+            final ArrayList<String> targetNames = mTemplate.mTargetNames;
+            for (int i = 0; i < targetNames.size(); i++) {
+                final Object target = mVectorDrawable.getTargetByName(targetNames.get(i));
+                if (target != null) {
+                    targets.add(target);
+                }
             }
+            mVectorDrawable.setAnimatedTargets(targets);
         }
 
         @Override
@@ -339,15 +398,20 @@ public class AnimatedVectorDrawable extends DrawableCompat implements Animatable
         }
     }
 
+    /**
+     * The animators parsed from the XML and the names of their targets, shared
+     * by every copy of the state.
+     */
+    private static class AnimationTemplate {
+        final ArrayList<Animator> mAnimators = new ArrayList<Animator>();
+        final ArrayList<String> mTargetNames = new ArrayList<String>();
+    }
+
     private void setupAnimatorsForTarget(String name, Animator animator) {
-        Object target = mAnimatedVectorState.mVectorDrawable.getTargetByName(name);
-        animator.setTarget(target);
-        if (mAnimatedVectorState.mAnimators == null) {
-            mAnimatedVectorState.mAnimators = new ArrayList<Animator>();
-            mAnimatedVectorState.mTargetNameMap = new ArrayMap<Animator, String>();
-        }
-        mAnimatedVectorState.mAnimators.add(animator);
-        mAnimatedVectorState.mTargetNameMap.put(animator, name);
+        // The template is never started, drawables animate their own clones.
+        final AnimationTemplate template = mAnimatedVectorState.mTemplate;
+        template.mAnimators.add(animator);
+        template.mTargetNames.add(name);
         if (DBG_ANIMATION_VECTOR_DRAWABLE) {
             Log.v(LOGTAG, "add animator  for target " + name + " " + animator);
         }
@@ -356,6 +420,10 @@ public class AnimatedVectorDrawable extends DrawableCompat implements Animatable
     @Override
     public boolean isRunning() {
         final ArrayList<Animator> animators = mAnimatedVectorState.mAnimators;
+        if (animators == null) {
+            // Never animated.
+            return false;
+        }
         final int size = animators.size();
         for (int i = 0; i < size; i++) {
             final Animator animator = animators.get(i);
@@ -368,6 +436,10 @@ public class AnimatedVectorDrawable extends DrawableCompat implements Animatable
 
     private boolean isStarted() {
         final ArrayList<Animator> animators = mAnimatedVectorState.mAnimators;
+        if (animators == null) {
+            // Never animated.
+            return false;
+        }
         final int size = animators.size();
         for (int i = 0; i < size; i++) {
             final Animator animator = animators.get(i);
@@ -380,7 +452,7 @@ public class AnimatedVectorDrawable extends DrawableCompat implements Animatable
 
     @Override
     public void start() {
-        final ArrayList<Animator> animators = mAnimatedVectorState.mAnimators;
+        final ArrayList<Animator> animators = mAnimatedVectorState.getAnimators();
         final int size = animators.size();
         for (int i = 0; i < size; i++) {
             final Animator animator = animators.get(i);
@@ -394,6 +466,10 @@ public class AnimatedVectorDrawable extends DrawableCompat implements Animatable
     @Override
     public void stop() {
         final ArrayList<Animator> animators = mAnimatedVectorState.mAnimators;
+        if (animators == null) {
+            // Never animated, don't clone the animators just to end them.
+            return;
+        }
         final int size = animators.size();
         for (int i = 0; i < size; i++) {
             final Animator animator = animators.get(i);
@@ -407,7 +483,7 @@ public class AnimatedVectorDrawable extends DrawableCompat implements Animatable
      * NOTE: Only works of all animations are ValueAnimators.
      */
     public void reverse() {
-        final ArrayList<Animator> animators = mAnimatedVectorState.mAnimators;
+        final ArrayList<Animator> animators = mAnimatedVectorState.getAnimators();
         final int size = animators.size();
         for (int i = 0; i < size; i++) {
             final Animator animator = animators.get(i);
@@ -420,7 +496,8 @@ public class AnimatedVectorDrawable extends DrawableCompat implements Animatable
     }
 
     public boolean canReverse() {
-        final ArrayList<Animator> animators = mAnimatedVectorState.mAnimators;
+        // Whether the animators can be reversed doesn't depend on the instance.
+        final ArrayList<Animator> animators = mAnimatedVectorState.mTemplate.mAnimators;
         final int size = animators.size();
         for (int i = 0; i < size; i++) {
             final Animator animator = animators.get(i);
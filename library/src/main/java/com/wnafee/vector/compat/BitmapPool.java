@@ -0,0 +1,235 @@
+package com.wnafee.vector.compat;
+
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of the bitmaps used to cache rasterized vector drawables.
+ * <p/>
+ * Bitmaps dropped by the {@link RasterCache}, by the translucent layer of
+ * animated vectors and by their static layers are kept here, bucketed by
+ * allocation size, instead of being left to the garbage collector. Allocating
+ * a cache bitmap then only erases a pooled one when a suitable one exists. On
+ * KitKat and above the smallest pooled bitmap whose allocation fits the request
+ * is reconfigured to its size, before that only bitmaps of the exact same size
+ * and config are reused.
+ * <p/>
+ * The pool holds at most {@link #setMaxSize(int)} bytes, dropping the bitmaps
+ * released the longest ago first. Apps should forward
+ * {@link ComponentCallbacks2#onTrimMemory(int)} to {@link #trimMemory(int)}.
+ */
+public final class BitmapPool {
+
+    private static final int DEFAULT_MAX_SIZE = 2 * 1024 * 1024;
+
+    private static final boolean CAN_RECONFIGURE =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+    // A pooled bitmap is only reconfigured for a request at most this many
+    // times smaller than its allocation, so small drawables don't pin big bitmaps.
+    private static final int MAX_SIZE_MULTIPLE = 8;
+
+    // The pooled bitmaps, bucketed by their exact allocation size in bytes.
+    private static final TreeMap<Integer, ArrayList<Bitmap>> sBuckets =
+            new TreeMap<Integer, ArrayList<Bitmap>>();
+    // Every pooled bitmap, released the longest ago first.
+    private static final ArrayList<Bitmap> sBitmaps = new ArrayList<Bitmap>();
+
+    private static int sMaxSize = DEFAULT_MAX_SIZE;
+    private static int sSize;
+    private static int sHitCount;
+    private static int sMissCount;
+
+    private BitmapPool() {
+    }
+
+    /**
+     * Get a transparent bitmap of the given size and config, reusing a pooled
+     * one if possible.
+     */
+    static Bitmap obtain(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = obtainPooled(width, height, config);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    private static synchronized Bitmap obtainPooled(int width, int height, Bitmap.Config config) {
+        final int byteCount = width * height * getBytesPerPixel(config);
+        Bitmap bitmap = null;
+        if (CAN_RECONFIGURE) {
+            // Any bitmap at least as big can be reconfigured, take the smallest.
+            final Map.Entry<Integer, ArrayList<Bitmap>> entry = sBuckets.ceilingEntry(byteCount);
+            if (entry != null && entry.getKey() / MAX_SIZE_MULTIPLE <= byteCount) {
+                bitmap = removeFromBucket(entry.getValue(), entry.getValue().size() - 1);
+            }
+        } else {
+            final ArrayList<Bitmap> bucket = sBuckets.get(byteCount);
+            if (bucket != null) {
+                for (int i = bucket.size() - 1; i >= 0; i--) {
+                    final Bitmap candidate = bucket.get(i);
+                    if (candidate.getWidth() == width && candidate.getHeight() == height
+                            && candidate.getConfig() == config) {
+                        bitmap = removeFromBucket(bucket, i);
+                        break;
+                    }
+                }
+            }
+        }
+        if (bitmap == null) {
+            sMissCount++;
+            return null;
+        }
+        sHitCount++;
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height
+                || bitmap.getConfig() != config) {
+            reconfigure(bitmap, width, height, config);
+        }
+        return bitmap;
+    }
+
+    private static Bitmap removeFromBucket(ArrayList<Bitmap> bucket, int index) {
+        final Bitmap bitmap = bucket.remove(index);
+        final int byteCount = getByteCount(bitmap);
+        if (bucket.isEmpty()) {
+            sBuckets.remove(byteCount);
+        }
+        sBitmaps.remove(bitmap);
+        sSize -= byteCount;
+        return bitmap;
+    }
+
+    /**
+     * Give a bitmap back to the pool. The caller must not use it anymore.
+     */
+    static synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        final int byteCount = getByteCount(bitmap);
+        if (byteCount > sMaxSize) {
+            return;
+        }
+        ArrayList<Bitmap> bucket = sBuckets.get(byteCount);
+        if (bucket == null) {
+            bucket = new ArrayList<Bitmap>();
+            sBuckets.put(byteCount, bucket);
+        }
+        bucket.add(bitmap);
+        sBitmaps.add(bitmap);
+        sSize += byteCount;
+        trimToSize(sMaxSize);
+    }
+
+    private static void trimToSize(int maxSize) {
+        while (sSize > maxSize && !sBitmaps.isEmpty()) {
+            final Bitmap bitmap = sBitmaps.get(0);
+            final ArrayList<Bitmap> bucket = sBuckets.get(getByteCount(bitmap));
+            removeFromBucket(bucket, bucket.indexOf(bitmap));
+        }
+    }
+
+    /**
+     * Set how many bytes of unused bitmaps the pool may hold.
+     */
+    public static synchronized void setMaxSize(int maxBytes) {
+        sMaxSize = maxBytes;
+        trimToSize(sMaxSize);
+    }
+
+    /**
+     * Release pooled bitmaps according to the memory pressure.
+     *
+     * @param level The level passed to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public static synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(sMaxSize / 2);
+        }
+    }
+
+    /**
+     * Drop every pooled bitmap.
+     */
+    public static synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * @return the number of bytes of bitmaps currently pooled.
+     */
+    public static synchronized int getSize() {
+        return sSize;
+    }
+
+    /**
+     * @return the number of allocations served by a pooled bitmap.
+     */
+    public static synchronized int getHitCount() {
+        return sHitCount;
+    }
+
+    /**
+     * @return the number of allocations that had to create a new bitmap.
+     */
+    public static synchronized int getMissCount() {
+        return sMissCount;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void reconfigure(Bitmap bitmap, int width, int height, Bitmap.Config config) {
+        bitmap.reconfigure(width, height, config);
+    }
+
+    /**
+     * @return the memory held by a bitmap, which is more than its pixels need
+     * when it was reconfigured from a larger pooled bitmap.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    static int getByteCount(Bitmap bitmap) {
+        if (CAN_RECONFIGURE) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
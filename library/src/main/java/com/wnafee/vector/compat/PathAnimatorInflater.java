@@ -22,6 +22,7 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.content.res.XmlResourceParser;
+import android.graphics.Path;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.util.Xml;
@@ -50,13 +51,50 @@ public class PathAnimatorInflater {
 
     private static final boolean DBG_ANIMATOR_INFLATER = false;
 
+    // Distance between two samples of a baked morph, in pixels. Drawing the
+    // nearest sample is then off by the path tolerance at most.
+    private static final float MORPH_TABLE_SAMPLE_SPACING = 2 * VectorDrawable.PATH_TOLERANCE;
+    private static final int MAX_MORPH_TABLE_SAMPLES = 256;
+
     public static Animator loadAnimator(Context c, Resources resources, Resources.Theme theme, int id,
                                         float pathErrorScale) throws Resources.NotFoundException {
+        return loadAnimator(c, resources, theme, id, pathErrorScale, null);
+    }
+
+    /**
+     * Load an animator for the given target, binding its object animators to
+     * the target's typed properties instead of looking setters up by name.
+     */
+    static Animator loadAnimator(Context c, Resources resources, Resources.Theme theme, int id,
+                                 float pathErrorScale, Object target)
+            throws Resources.NotFoundException {
+        return loadAnimator(c, resources, theme, id, pathErrorScale, target, null);
+    }
+
+    /**
+     * Load an animator for the given target, baking its path morphs into
+     * tables of Paths for as long as <code>budget</code> allows.
+     *
+     * @param budget The memory left for the morph tables of the drawable, or
+     *               null to never bake.
+     */
+    static Animator loadAnimator(Context c, Resources resources, Resources.Theme theme, int id,
+                                 float pathErrorScale, Object target, MorphTableBudget budget)
+            throws Resources.NotFoundException {
 
         XmlResourceParser parser = null;
         try {
             parser = resources.getAnimation(id);
-            return createAnimatorFromXml(c, resources, theme, parser, pathErrorScale);
+            final Animator anim = createAnimatorFromXml(c, resources, theme, parser, pathErrorScale,
+                    budget);
+            if (target != null) {
+                VectorDrawable.bindAnimatedProperties(anim, target);
+            } else {
+                // Without a target to bind, pathData is set by reflection
+                // through setPathData(PathData), which can't take a PathMorph.
+                useInterpolatedPathData(anim);
+            }
+            return anim;
         } catch (XmlPullParserException ex) {
             Resources.NotFoundException rnf =
                     new Resources.NotFoundException("Can't load animation resource ID #0x" +
@@ -74,15 +112,31 @@ public class PathAnimatorInflater {
         }
     }
 
+    /**
+     * Make the path animators of <code>anim</code> produce interpolated
+     * PathData values instead of PathMorphs.
+     */
+    private static void useInterpolatedPathData(Animator anim) {
+        if (anim instanceof AnimatorSet) {
+            final ArrayList<Animator> children = ((AnimatorSet) anim).getChildAnimations();
+            for (int i = 0; i < children.size(); i++) {
+                useInterpolatedPathData(children.get(i));
+            }
+        } else if (anim instanceof ValueAnimator) {
+            ((ValueAnimator) anim).setEvaluator(new PathDataEvaluator());
+        }
+    }
+
     private static Animator createAnimatorFromXml(Context c, Resources res, Resources.Theme theme, XmlPullParser parser,
-                                                  float pixelSize)
+                                                  float pixelSize, MorphTableBudget budget)
             throws XmlPullParserException, IOException {
         return createAnimatorFromXml(c, res, theme, parser, Xml.asAttributeSet(parser), null, 0,
-                pixelSize);
+                pixelSize, budget);
     }
 
     private static Animator createAnimatorFromXml(Context c, Resources res, Resources.Theme theme, XmlPullParser parser,
-                                                  AttributeSet attrs, AnimatorSet parent, int sequenceOrdering, float pixelSize)
+                                                  AttributeSet attrs, AnimatorSet parent, int sequenceOrdering, float pixelSize,
+                                                  MorphTableBudget budget)
             throws XmlPullParserException, IOException {
 
         Animator anim = null;
@@ -102,9 +156,9 @@ public class PathAnimatorInflater {
             String name = parser.getName();
 
             if (name.equals("objectAnimator")) {
-                anim = loadObjectAnimator(c, res, theme, attrs, pixelSize);
+                anim = loadObjectAnimator(c, res, theme, attrs, pixelSize, budget);
             } else if (name.equals("animator")) {
-                anim = loadAnimator(c, res, theme, attrs, null, pixelSize);
+                anim = loadAnimator(c, res, theme, attrs, null, pixelSize, budget);
             } else if (name.equals("set")) {
                 anim = new AnimatorSet();
                 //TODO: don't care about 'set' attributes for now
@@ -117,7 +171,7 @@ public class PathAnimatorInflater {
 //                int ordering = a.getInt(R.styleable.AnimatorSet_ordering,
 //                        TOGETHER);
                 createAnimatorFromXml(c, res, theme, parser, attrs, (AnimatorSet) anim, TOGETHER,
-                        pixelSize);
+                        pixelSize, budget);
 //                a.recycle();
             } else {
                 throw new RuntimeException("Unknown animator name: " + parser.getName());
@@ -148,10 +202,11 @@ public class PathAnimatorInflater {
     }
 
     private static ObjectAnimator loadObjectAnimator(Context c, Resources res, Resources.Theme theme, AttributeSet attrs,
-                                                     float pathErrorScale) throws Resources.NotFoundException {
+                                                     float pathErrorScale, MorphTableBudget budget)
+            throws Resources.NotFoundException {
         ObjectAnimator anim = new ObjectAnimator();
 
-        loadAnimator(c, res, theme, attrs, anim, pathErrorScale);
+        loadAnimator(c, res, theme, attrs, anim, pathErrorScale, budget);
 
         return anim;
     }
@@ -166,7 +221,8 @@ public class PathAnimatorInflater {
      *            ObjectAnimator
      */
     private static ValueAnimator loadAnimator(Context c, Resources res, Resources.Theme theme,
-                                              AttributeSet attrs, ValueAnimator anim, float pathErrorScale)
+                                              AttributeSet attrs, ValueAnimator anim, float pathErrorScale,
+                                              MorphTableBudget budget)
             throws Resources.NotFoundException {
 
         TypedArray arrayAnimator = null;
@@ -192,7 +248,8 @@ public class PathAnimatorInflater {
             anim = new ValueAnimator();
         }
 
-        parseAnimatorFromTypeArray(anim, arrayAnimator, arrayObjectAnimator);
+        parseAnimatorFromTypeArray(anim, arrayAnimator, arrayObjectAnimator, pathErrorScale,
+                budget);
 
         final int resId =
                 arrayAnimator.getResourceId(R.styleable.Animator_android_interpolator, 0);
@@ -213,9 +270,12 @@ public class PathAnimatorInflater {
      * @param arrayAnimator Incoming typed array for Animator's attributes.
      * @param arrayObjectAnimator Incoming typed array for Object Animator's
      *            attributes.
+     * @param pixelSize The size of a pixel in viewport units.
+     * @param budget The memory left for baked morphs, may be null.
      */
     private static void parseAnimatorFromTypeArray(ValueAnimator anim,
-                                                   TypedArray arrayAnimator, TypedArray arrayObjectAnimator) {
+                                                   TypedArray arrayAnimator, TypedArray arrayObjectAnimator,
+                                                   float pixelSize, MorphTableBudget budget) {
         long duration = arrayAnimator.getInt(R.styleable.Animator_android_duration, 300);
 
         long startDelay = arrayAnimator.getInt(R.styleable.Animator_android_startOffset, 0);
@@ -226,7 +286,7 @@ public class PathAnimatorInflater {
 
         // Must be a path animator by the time I reach here
         if (valueType == VALUE_TYPE_PATH) {
-            evaluator = setupAnimatorForPath(anim, arrayAnimator);
+            evaluator = setupAnimatorForPath(anim, arrayAnimator, pixelSize, budget);
         } else {
             throw new IllegalArgumentException("target is not a pathType target");
         }
@@ -257,34 +317,42 @@ public class PathAnimatorInflater {
      *
      * @param anim The target Animator which will be updated.
      * @param arrayAnimator TypedArray for the ValueAnimator.
-     * @return the PathDataEvaluator.
+     * @param pixelSize The size of a pixel in viewport units.
+     * @param budget The memory left for baked morphs, may be null.
+     * @return the PathMorphEvaluator.
      */
     private static TypeEvaluator setupAnimatorForPath(ValueAnimator anim,
-                                                      TypedArray arrayAnimator) {
+                                                      TypedArray arrayAnimator, float pixelSize,
+                                                      MorphTableBudget budget) {
         TypeEvaluator evaluator = null;
         String fromString = arrayAnimator.getString(R.styleable.Animator_android_valueFrom);
         String toString = arrayAnimator.getString(R.styleable.Animator_android_valueTo);
-        PathParser.PathDataNode[] nodesFrom = PathParser.createNodesFromPathData(fromString);
-        PathParser.PathDataNode[] nodesTo = PathParser.createNodesFromPathData(toString);
-
-        if (nodesFrom != null) {
-            if (nodesTo != null) {
-                anim.setObjectValues(nodesFrom, nodesTo);
-                if (!PathParser.canMorph(nodesFrom, nodesTo)) {
+        // Start and end values are only read, by the evaluator and by the paths
+        // drawing them, so they can use the shared parsed paths.
+        PathParser.PathData dataFrom = PathParser.getSharedPathData(fromString);
+        PathParser.PathData dataTo = PathParser.getSharedPathData(toString);
+
+        if (dataFrom != null) {
+            if (dataTo != null) {
+                anim.setObjectValues(dataFrom, dataTo);
+                if (!PathParser.canMorph(dataFrom, dataTo)) {
                     throw new InflateException(arrayAnimator.getPositionDescription()
                             + " Can't morph from " + fromString + " to " + toString);
                 }
             } else {
-                anim.setObjectValues((Object)nodesFrom);
+                anim.setObjectValues(dataFrom);
             }
-            evaluator = new PathDataEvaluator(PathParser.deepCopyNodes(nodesFrom));
-        } else if (nodesTo != null) {
-            anim.setObjectValues((Object)nodesTo);
-            evaluator = new PathDataEvaluator(PathParser.deepCopyNodes(nodesTo));
+            // Only a morph between two known values can be baked, a single
+            // value animates from whatever the target shows when it starts.
+            evaluator = new PathMorphEvaluator(dataTo != null
+                    ? createMorphTable(dataFrom, dataTo, pixelSize, budget) : null);
+        } else if (dataTo != null) {
+            anim.setObjectValues(dataTo);
+            evaluator = new PathMorphEvaluator(null);
         }
 
         if (DBG_ANIMATOR_INFLATER && evaluator != null) {
-            Log.v(TAG, "create a new PathDataEvaluator here");
+            Log.v(TAG, "create a new PathMorphEvaluator here");
         }
 
         return evaluator;
@@ -305,52 +373,193 @@ public class PathAnimatorInflater {
     }
 
     /**
-     * PathDataEvaluator is used to interpolate between two paths which are
-     * represented in the same format but different control points' values.
-     * The path is represented as an array of PathDataNode here, which is
-     * fundamentally an array of floating point numbers.
+     * Create a table for the morph between the given values if the budget has
+     * room for it, with samples dense enough to stay within a fraction of a pixel.
      */
-    private static class PathDataEvaluator implements TypeEvaluator<PathParser.PathDataNode[]> {
-        private PathParser.PathDataNode[] mNodeArray;
+    private static PathMorphTable createMorphTable(PathParser.PathData dataFrom,
+                                                   PathParser.PathData dataTo, float pixelSize,
+                                                   MorphTableBudget budget) {
+        if (budget == null || pixelSize <= 0) {
+            return null;
+        }
+        final int sampleCount = PathMorphTable.getSampleCount(dataFrom, dataTo,
+                pixelSize * MORPH_TABLE_SAMPLE_SPACING);
+        if (sampleCount > MAX_MORPH_TABLE_SAMPLES) {
+            return null;
+        }
+        final int byteCount = sampleCount * PathMorphTable.getSampleByteCount(dataFrom);
+        if (byteCount > budget.mRemainingBytes) {
+            return null;
+        }
+        budget.mRemainingBytes -= byteCount;
+        return new PathMorphTable(dataFrom, dataTo, sampleCount,
+                pixelSize * VectorDrawable.PATH_TOLERANCE);
+    }
+
+    /**
+     * The memory a drawable lets its path animators spend on morph tables.
+     */
+    static class MorphTableBudget {
+        int mRemainingBytes;
+
+        MorphTableBudget(int maxBytes) {
+            mRemainingBytes = maxBytes;
+        }
+    }
+
+    /**
+     * PathMorphTable holds a morph baked at evenly spaced fractions, so that
+     * playing it again only picks the nearest Path instead of building one.
+     * Samples are built the first time they are needed.
+     */
+    private static class PathMorphTable {
+        private final PathParser.PathData mFrom;
+        private final PathParser.PathData mTo;
+        private final Path[] mSamples;
+        private final float mTolerance;
+
+        PathMorphTable(PathParser.PathData dataFrom, PathParser.PathData dataTo,
+                       int sampleCount, float tolerance) {
+            mFrom = dataFrom;
+            mTo = dataTo;
+            mSamples = new Path[sampleCount];
+            mTolerance = tolerance;
+        }
 
         /**
-         * Create a PathParser.PathDataNode[] that does not reuse the animated value.
-         * Care must be taken when using this option because on every evaluation
-         * a new <code>PathParser.PathDataNode[]</code> will be allocated.
+         * @return how many samples keep the points of two neighbours at most
+         * <code>spacing</code> apart. Parameters are compared directly, which
+         * is exact for absolute coordinates and an estimate for relative ones.
          */
-        private PathDataEvaluator() {}
+        static int getSampleCount(PathParser.PathData dataFrom, PathParser.PathData dataTo,
+                                  float spacing) {
+            final float[] from = dataFrom.mParams;
+            final float[] to = dataTo.mParams;
+            float maxDistance = 0;
+            for (int i = 0; i < from.length; i++) {
+                maxDistance = Math.max(maxDistance, Math.abs(to[i] - from[i]));
+            }
+            return Math.max(2, (int) Math.ceil(maxDistance / spacing) + 1);
+        }
 
         /**
-         * Create a PathDataEvaluator that reuses <code>nodeArray</code> for every evaluate() call.
-         * Caution must be taken to ensure that the value returned from
-         * {@link android.animation.ValueAnimator#getAnimatedValue()} is not cached, modified, or
-         * used across threads. The value will be modified on each <code>evaluate()</code> call.
-         *
-         * @param nodeArray The array to modify and return from <code>evaluate</code>.
+         * @return an estimate of the memory used by one sample: the points it
+         * holds as floats, plus the verbs and the object itself.
          */
-        public PathDataEvaluator(PathParser.PathDataNode[] nodeArray) {
-            mNodeArray = nodeArray;
+        static int getSampleByteCount(PathParser.PathData data) {
+            return data.mParams.length * 4 + data.size() + 64;
+        }
+
+        boolean matches(PathParser.PathData dataFrom, PathParser.PathData dataTo) {
+            return mFrom == dataFrom && mTo == dataTo;
+        }
+
+        /**
+         * @return the sample nearest to <code>fraction</code>, or null if the
+         * fraction is out of the baked range, e.g. with an overshooting interpolator.
+         */
+        Path getPath(float fraction) {
+            if (fraction < 0 || fraction > 1) {
+                return null;
+            }
+            final int last = mSamples.length - 1;
+            final int index = Math.round(fraction * last);
+            Path path = mSamples[index];
+            if (path == null) {
+                path = new Path();
+                mFrom.toPath(path, mTo, (float) index / last, mTolerance);
+                mSamples[index] = path;
+            }
+            return path;
+        }
+    }
+
+    /**
+     * PathMorphEvaluator is used to interpolate between two paths which are
+     * represented in the same format but different control points' values.
+     * It does not compute the path in between: it returns a
+     * {@link PathParser.PathMorph} naming both ends and the fraction, and the
+     * target builds its Path straight from those, interpolating each command
+     * as it is added. The returned PathMorph is reused by every evaluate() call.
+     * With a {@link PathMorphTable}, the PathMorph also carries the baked Path.
+     */
+    private static class PathMorphEvaluator implements TypeEvaluator<Object> {
+        private final PathParser.PathMorph mPathMorph = new PathParser.PathMorph();
+        private final PathMorphTable mTable;
+
+        // The last start and end values known to morph into each other. The
+        // command layout of a PathData never changes, so the check holds for as
+        // long as the same values are passed in, which is the case on every
+        // frame of an animation.
+        private PathParser.PathData mVerifiedStartPathData;
+        private PathParser.PathData mVerifiedEndPathData;
+
+        PathMorphEvaluator(PathMorphTable table) {
+            mTable = table;
         }
 
         @Override
-        public PathParser.PathDataNode[] evaluate(float fraction,
-                                                  PathParser.PathDataNode[] startPathData,
-                                                  PathParser.PathDataNode[] endPathData) {
+        public Object evaluate(float fraction, Object startValue, Object endValue) {
+            final PathParser.PathData startPathData = (PathParser.PathData) startValue;
+            final PathParser.PathData endPathData = (PathParser.PathData) endValue;
+            if (startPathData != mVerifiedStartPathData
+                    || endPathData != mVerifiedEndPathData) {
+                verify(startPathData, endPathData);
+            }
+
+            Path path = null;
+            if (mTable != null && mTable.matches(startPathData, endPathData)) {
+                path = mTable.getPath(fraction);
+            }
+            mPathMorph.set(startPathData, endPathData, fraction, path);
+
+            return mPathMorph;
+        }
+
+        private void verify(PathParser.PathData startPathData,
+                            PathParser.PathData endPathData) {
             if (!PathParser.canMorph(startPathData, endPathData)) {
                 throw new IllegalArgumentException("Can't interpolate between"
                         + " two incompatible pathData");
             }
 
-            if (mNodeArray == null || !PathParser.canMorph(mNodeArray, startPathData)) {
-                mNodeArray = PathParser.deepCopyNodes(startPathData);
-            }
+            mVerifiedStartPathData = startPathData;
+            mVerifiedEndPathData = endPathData;
+        }
+    }
+
+    /**
+     * PathDataEvaluator interpolates between two paths which can morph into
+     * each other, for targets which take plain PathData values. The returned
+     * PathData is reused by every evaluate() call, so it must not be kept.
+     */
+    private static class PathDataEvaluator implements TypeEvaluator<Object> {
+        private PathParser.PathData mPathData;
 
-            for (int i = 0; i < startPathData.length; i++) {
-                mNodeArray[i].interpolatePathDataNode(startPathData[i],
-                        endPathData[i], fraction);
+        // The last start and end values known to morph into each other and
+        // into mPathData, see PathMorphEvaluator.
+        private PathParser.PathData mVerifiedStartPathData;
+        private PathParser.PathData mVerifiedEndPathData;
+
+        @Override
+        public Object evaluate(float fraction, Object startValue, Object endValue) {
+            final PathParser.PathData startPathData = (PathParser.PathData) startValue;
+            final PathParser.PathData endPathData = (PathParser.PathData) endValue;
+            if (startPathData != mVerifiedStartPathData
+                    || endPathData != mVerifiedEndPathData) {
+                if (!PathParser.canMorph(startPathData, endPathData)) {
+                    throw new IllegalArgumentException("Can't interpolate between"
+                            + " two incompatible pathData");
+                }
+                if (mPathData == null || !PathParser.canMorph(mPathData, startPathData)) {
+                    mPathData = PathParser.deepCopyPathData(startPathData);
+                }
+                mVerifiedStartPathData = startPathData;
+                mVerifiedEndPathData = endPathData;
             }
 
-            return mNodeArray;
+            mPathData.interpolatePathData(startPathData, endPathData, fraction);
+            return mPathData;
         }
     }
 
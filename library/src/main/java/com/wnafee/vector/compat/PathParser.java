@@ -16,25 +16,96 @@ package com.wnafee.vector.compat;
  * limitations under the License.
  */
 
+import android.graphics.Matrix;
 import android.graphics.Path;
+import android.graphics.RectF;
+import android.support.v4.util.LruCache;
 import android.util.Log;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 
 
 public class PathParser {
     static final String LOGTAG = PathParser.class.getSimpleName();
 
+    /**
+     * Keep path data exactly as written.
+     */
+    public static final int NORMALIZE_NONE = 0;
+
+    /**
+     * Convert elliptical arcs into absolute cubic Bezier segments.
+     */
+    public static final int NORMALIZE_ARCS = 1;
+
+    /**
+     * Convert every command into absolute moveTo, lineTo, quadTo, cubicTo or close.
+     */
+    public static final int NORMALIZE_ALL = 2;
+
+    /**
+     * Returned by {@link #getShape(PathData, RectF)} for paths that are none
+     * of the shapes below.
+     */
+    static final int SHAPE_PATH = 0;
+    /**
+     * A closed axis aligned rectangle.
+     */
+    static final int SHAPE_RECT = 1;
+    /**
+     * A closed axis aligned ellipse, made of two arcs.
+     */
+    static final int SHAPE_OVAL = 2;
+    /**
+     * A single open straight segment.
+     */
+    static final int SHAPE_LINE = 3;
+
+    // Most points a rectangle or a line is made of: the start point, the
+    // other corners, and optionally the start point again.
+    private static final int MAX_SHAPE_POINTS = 5;
+    // How far from exact semicircles the arcs of an oval may be, as a fraction
+    // of the squared radii. The center moves by about sqrt(epsilon) * radius.
+    private static final double OVAL_EPSILON = 1e-6;
+
+    private static final int INITIAL_SCRATCH_SIZE = 32;
+    private static final float[] EMPTY_PARAMS = new float[0];
+
+    // Largest mantissa that can still take one more decimal digit without overflowing.
+    private static final long MAX_MANTISSA = (Long.MAX_VALUE - 9) / 10;
+    private static final int MAX_EXPONENT = 10000;
+
+    // Number of distinct pathData strings kept parsed for the whole process.
+    private static final int PATH_DATA_CACHE_SIZE = 128;
+
+    /**
+     * Parsed PathData shared by every drawable and animator in the process, keyed
+     * by the pathData string. Cached entries are never modified, callers that
+     * need to mutate a path get a copy through createPathDataFromPathData().
+     */
+    private static final LruCache<String, PathData> sPathDataCache =
+            new LruCache<String, PathData>(PATH_DATA_CACHE_SIZE) {
+                @Override
+                protected PathData create(String pathData) {
+                    return parsePathData(pathData);
+                }
+            };
+
+    // Powers of ten that are exactly representable as a double.
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
     /**
      * @param pathData The string representing a path, the same as "d" string in svg file.
      * @return the generated Path object.
      */
     public static Path createPathFromPathData(String pathData) {
         Path path = new Path();
-        PathDataNode[] nodes = createNodesFromPathData(pathData);
-        if (nodes != null) {
-            PathDataNode.nodesToPath(nodes, path);
+        PathData data = getSharedPathData(pathData);
+        if (data != null) {
+            data.toPath(path);
             return path;
         }
         return null;
@@ -45,28 +116,537 @@ public class PathParser {
      * @return an array of the PathDataNode.
      */
     public static PathDataNode[] createNodesFromPathData(String pathData) {
+        PathData data = getSharedPathData(pathData);
+        return data != null ? data.toNodes() : null;
+    }
+
+    /**
+     * @param pathData The string representing a path, the same as "d" string in svg file.
+     * @return a new PathData owned by the caller, which may modify it.
+     */
+    public static PathData createPathDataFromPathData(String pathData) {
+        return deepCopyPathData(getSharedPathData(pathData));
+    }
+
+    /**
+     * Returns the process-wide parsed form of <code>pathData</code>, parsing it
+     * only the first time it is seen. The result is shared and must not be
+     * modified, so it is only handed out inside this package; everyone else
+     * gets a copy from {@link #createPathDataFromPathData(String)}.
+     *
+     * @param pathData The string representing a path, the same as "d" string in svg file.
+     * @return the shared, read-only PathData.
+     */
+    static PathData getSharedPathData(String pathData) {
         if (pathData == null) {
             return null;
         }
-        int start = 0;
-        int end = 1;
+        return sPathDataCache.get(pathData);
+    }
 
-        ArrayList<PathDataNode> list = new ArrayList<PathDataNode>();
-        while (end < pathData.length()) {
-            end = nextStart(pathData, end);
-            String s = pathData.substring(start, end).trim();
-            if (s.length() > 0) {
-                float[] val = getFloats(s);
-                addNode(list, s.charAt(0), val);
+    /**
+     * @return the number of pathData lookups answered from the cache.
+     */
+    public static int getPathDataCacheHitCount() {
+        return sPathDataCache.hitCount();
+    }
+
+    /**
+     * @return the number of pathData lookups that had to parse the string.
+     */
+    public static int getPathDataCacheMissCount() {
+        return sPathDataCache.missCount();
+    }
+
+    /**
+     * @return the number of parsed paths dropped from the cache to respect its size.
+     */
+    public static int getPathDataCacheEvictionCount() {
+        return sPathDataCache.evictionCount();
+    }
+
+    /**
+     * Drop every parsed path kept by the cache, e.g. when the app is asked to trim memory.
+     */
+    public static void clearPathDataCache() {
+        sPathDataCache.evictAll();
+    }
+
+    private static PathData parsePathData(String pathData) {
+        final int length = pathData.length();
+
+        // Single pass over the characters: command letters start a new command and
+        // the numbers following them are scanned in place into the parameter
+        // buffer, so no intermediate Strings are created.
+        PathDataBuilder builder = new PathDataBuilder();
+        ExtractFloatResult result = new ExtractFloatResult();
+        int index = nextStart(pathData, 0);
+        while (index < length) {
+            final char cmd = pathData.charAt(index);
+            index++;
+            builder.addCommand(cmd);
+
+            if (cmd == 'z' || cmd == 'Z') {
+                // Close commands take no parameters, ignore anything up to the next command.
+                index = nextStart(pathData, index);
+                continue;
             }
 
-            start = end;
-            end++;
+            while (true) {
+                index = skipSeparators(pathData, index);
+                if (index >= length || isCommand(pathData.charAt(index))) {
+                    break;
+                }
+                extract(pathData, index, result);
+                if (result.mEndPosition == index) {
+                    Log.e(LOGTAG, "error in parsing \"" + pathData + "\" at " + index);
+                    throw new NumberFormatException("Invalid number in path data at " + index);
+                }
+                builder.addParam(result.mValue);
+                index = result.mEndPosition;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param pathData The string representing a path, the same as "d" string in svg file.
+     * @param normalization One of {@link #NORMALIZE_NONE}, {@link #NORMALIZE_ARCS} or
+     *                      {@link #NORMALIZE_ALL}.
+     * @return a new PathData owned by the caller, normalized as requested.
+     */
+    public static PathData createPathDataFromPathData(String pathData, int normalization) {
+        return normalizePathData(getSharedPathData(pathData), normalization);
+    }
+
+    /**
+     * Apply a transformation to the coordinates of a path. The path is
+     * normalized with {@link #NORMALIZE_ALL} first, so every parameter is an
+     * absolute point that any affine matrix maps exactly. Like a normalized
+     * path, the result generally can't morph with the source anymore.
+     *
+     * @param source The path to transform, it is not modified.
+     * @param matrix The transformation to apply.
+     * @return a new transformed PathData.
+     */
+    public static PathData transformPathData(PathData source, Matrix matrix) {
+        final PathData data = normalizePathData(source, NORMALIZE_ALL);
+        if (data != null) {
+            matrix.mapPoints(data.mParams);
+        }
+        return data;
+    }
+
+    /**
+     * Rewrite a path so that drawing it needs less work, at the cost of
+     * changing its command layout. With {@link #NORMALIZE_ARCS} every elliptical
+     * arc is converted once into absolute cubic Bezier segments, so drawing no
+     * longer runs any trigonometry. {@link #NORMALIZE_ALL} also converts every
+     * relative and shorthand command, leaving only absolute moveTo, lineTo,
+     * quadTo, cubicTo and close.
+     * <p>
+     * The result draws the same shape, but it generally can't morph with
+     * paths it could morph with before, so don't normalize animated path data.
+     *
+     * @param source The path to normalize, it is not modified.
+     * @param normalization One of {@link #NORMALIZE_NONE}, {@link #NORMALIZE_ARCS} or
+     *                      {@link #NORMALIZE_ALL}.
+     * @return a new normalized PathData.
+     */
+    public static PathData normalizePathData(PathData source, int normalization) {
+        if (source == null) {
+            return null;
+        }
+        if (normalization == NORMALIZE_NONE) {
+            return new PathData(source);
+        }
+        final boolean normalizeAll = normalization == NORMALIZE_ALL;
+        final float[] val = source.mParams;
+
+        PathDataBuilder builder = new PathDataBuilder();
+        float currentX = 0;
+        float currentY = 0;
+        float ctrlPointX = 0;
+        float ctrlPointY = 0;
+        char previousCmd = 'm';
+
+        for (int i = 0; i < source.mTypes.length; i++) {
+            final char cmd = (char) source.mTypes[i];
+            final int start = source.mOffsets[i];
+            final int end = source.mOffsets[i + 1];
+            final boolean previousIsArc = previousCmd == 'a' || previousCmd == 'A';
+
+            // Smooth curves right after an arc must be converted too, otherwise
+            // they would reflect the control point of the arc's last segment.
+            final boolean convert = normalizeAll || cmd == 'a' || cmd == 'A'
+                    || (previousIsArc && (cmd == 's' || cmd == 'S' || cmd == 't' || cmd == 'T'));
+            if (!convert) {
+                builder.addCommand(cmd);
+                for (int k = start; k < end; k++) {
+                    builder.addParam(val[k]);
+                }
+            }
+
+            if (cmd == 'z' || cmd == 'Z') {
+                if (convert) {
+                    builder.close();
+                }
+                // Like PathDataNode.addCommand(), keep the current point where
+                // the contour ended: Path.rMoveTo() after a close is relative
+                // to the last point, not to the start of the closed subpath.
+                previousCmd = cmd;
+                continue;
+            }
+
+            final int incr = getParamCount(cmd);
+            for (int k = start; k <= end - incr; k += incr) {
+                float x1;
+                float y1;
+                float x2;
+                float y2;
+                final boolean relative = cmd >= 'a';
+                final float baseX = relative ? currentX : 0;
+                final float baseY = relative ? currentY : 0;
+                switch (cmd) {
+                    case 'm':
+                    case 'M':
+                        currentX = baseX + val[k + 0];
+                        currentY = baseY + val[k + 1];
+                        if (convert) {
+                            builder.moveTo(currentX, currentY);
+                        }
+                        break;
+                    case 'l':
+                    case 'L':
+                        currentX = baseX + val[k + 0];
+                        currentY = baseY + val[k + 1];
+                        if (convert) {
+                            builder.lineTo(currentX, currentY);
+                        }
+                        break;
+                    case 'h':
+                    case 'H':
+                        currentX = baseX + val[k + 0];
+                        if (convert) {
+                            builder.lineTo(currentX, currentY);
+                        }
+                        break;
+                    case 'v':
+                    case 'V':
+                        currentY = baseY + val[k + 0];
+                        if (convert) {
+                            builder.lineTo(currentX, currentY);
+                        }
+                        break;
+                    case 'c':
+                    case 'C':
+                        x1 = baseX + val[k + 0];
+                        y1 = baseY + val[k + 1];
+                        ctrlPointX = baseX + val[k + 2];
+                        ctrlPointY = baseY + val[k + 3];
+                        currentX = baseX + val[k + 4];
+                        currentY = baseY + val[k + 5];
+                        if (convert) {
+                            builder.cubicTo(x1, y1, ctrlPointX, ctrlPointY, currentX, currentY);
+                        }
+                        break;
+                    case 's':
+                    case 'S':
+                        x1 = currentX;
+                        y1 = currentY;
+                        if (previousCmd == 'c' || previousCmd == 's'
+                                || previousCmd == 'C' || previousCmd == 'S') {
+                            x1 = 2 * currentX - ctrlPointX;
+                            y1 = 2 * currentY - ctrlPointY;
+                        }
+                        ctrlPointX = baseX + val[k + 0];
+                        ctrlPointY = baseY + val[k + 1];
+                        currentX = baseX + val[k + 2];
+                        currentY = baseY + val[k + 3];
+                        if (convert) {
+                            builder.cubicTo(x1, y1, ctrlPointX, ctrlPointY, currentX, currentY);
+                        }
+                        break;
+                    case 'q':
+                    case 'Q':
+                        ctrlPointX = baseX + val[k + 0];
+                        ctrlPointY = baseY + val[k + 1];
+                        currentX = baseX + val[k + 2];
+                        currentY = baseY + val[k + 3];
+                        if (convert) {
+                            builder.quadTo(ctrlPointX, ctrlPointY, currentX, currentY);
+                        }
+                        break;
+                    case 't':
+                    case 'T':
+                        x1 = currentX;
+                        y1 = currentY;
+                        if (previousCmd == 'q' || previousCmd == 't'
+                                || previousCmd == 'Q' || previousCmd == 'T') {
+                            x1 = 2 * currentX - ctrlPointX;
+                            y1 = 2 * currentY - ctrlPointY;
+                        }
+                        ctrlPointX = x1;
+                        ctrlPointY = y1;
+                        currentX = baseX + val[k + 0];
+                        currentY = baseY + val[k + 1];
+                        if (convert) {
+                            builder.quadTo(ctrlPointX, ctrlPointY, currentX, currentY);
+                        }
+                        break;
+                    case 'a':
+                    case 'A':
+                        x2 = baseX + val[k + 5];
+                        y2 = baseY + val[k + 6];
+                        PathDataNode.drawArc(null, builder,
+                                currentX,
+                                currentY,
+                                x2,
+                                y2,
+                                val[k + 0],
+                                val[k + 1],
+                                val[k + 2],
+                                val[k + 3] != 0,
+                                val[k + 4] != 0,
+                                0);
+                        currentX = x2;
+                        currentY = y2;
+                        ctrlPointX = currentX;
+                        ctrlPointY = currentY;
+                        break;
+                }
+                previousCmd = cmd;
+            }
+            previousCmd = cmd;
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the number of parameters one instance of <code>cmd</code> takes.
+     */
+    private static int getParamCount(char cmd) {
+        switch (cmd) {
+            case 'z':
+            case 'Z':
+                return 0;
+            case 'h':
+            case 'H':
+            case 'v':
+            case 'V':
+                return 1;
+            case 'c':
+            case 'C':
+                return 6;
+            case 's':
+            case 'S':
+            case 'q':
+            case 'Q':
+                return 4;
+            case 'a':
+            case 'A':
+                return 7;
+            default:
+                return 2;
+        }
+    }
+
+    /**
+     * Recognize paths that are simple shapes, which can be drawn without
+     * building a Path. Only exact matches are recognized, anything else is
+     * reported as {@link #SHAPE_PATH}.
+     *
+     * @param data The path to classify.
+     * @param bounds Receives the rectangle, the bounding box of the oval, or the
+     *               start and end points of the line as (left, top) and
+     *               (right, bottom).
+     * @return one of {@link #SHAPE_PATH}, {@link #SHAPE_RECT},
+     * {@link #SHAPE_OVAL} or {@link #SHAPE_LINE}.
+     */
+    static int getShape(PathData data, RectF bounds) {
+        final byte[] types = data.mTypes;
+        final int[] offsets = data.mOffsets;
+        int count = types.length;
+        if (count == 0 || (types[0] != 'M' && types[0] != 'm')) {
+            return SHAPE_PATH;
+        }
+        final boolean closed = types[count - 1] == 'z' || types[count - 1] == 'Z';
+        if (closed) {
+            count--;
+        }
+        if (count > 1 && (types[1] == 'a' || types[1] == 'A')) {
+            return closed ? getOvalShape(data, count, bounds) : SHAPE_PATH;
+        }
+
+        // Collect the points of a single run of straight lines.
+        final float[] val = data.mParams;
+        final float[] points = new float[MAX_SHAPE_POINTS * 2];
+        int pointCount = 0;
+        float x = 0;
+        float y = 0;
+        for (int i = 0; i < count; i++) {
+            final char cmd = (char) types[i];
+            if (i > 0 && (cmd == 'm' || cmd == 'M')) {
+                return SHAPE_PATH;
+            }
+            final int incr = getParamCount(cmd);
+            for (int k = offsets[i]; k + incr <= offsets[i + 1]; k += incr) {
+                if ((cmd == 'M' || cmd == 'm') && k != offsets[i]) {
+                    // Like PathDataNode.addCommand(), every extra pair of a
+                    // moveTo starts another subpath rather than drawing a line.
+                    return SHAPE_PATH;
+                }
+                switch (cmd) {
+                    case 'M':
+                    case 'L':
+                        x = val[k + 0];
+                        y = val[k + 1];
+                        break;
+                    case 'm':
+                    case 'l':
+                        x += val[k + 0];
+                        y += val[k + 1];
+                        break;
+                    case 'H':
+                        x = val[k + 0];
+                        break;
+                    case 'h':
+                        x += val[k + 0];
+                        break;
+                    case 'V':
+                        y = val[k + 0];
+                        break;
+                    case 'v':
+                        y += val[k + 0];
+                        break;
+                    default:
+                        return SHAPE_PATH;
+                }
+                if (pointCount == MAX_SHAPE_POINTS) {
+                    return SHAPE_PATH;
+                }
+                points[pointCount * 2] = x;
+                points[pointCount * 2 + 1] = y;
+                pointCount++;
+            }
+        }
+
+        if (!closed) {
+            if (pointCount != 2 || (points[0] == points[2] && points[1] == points[3])) {
+                return SHAPE_PATH;
+            }
+            bounds.set(points[0], points[1], points[2], points[3]);
+            return SHAPE_LINE;
+        }
+
+        if (pointCount == 5 && points[8] == points[0] && points[9] == points[1]) {
+            pointCount = 4;
+        }
+        if (pointCount != 4) {
+            return SHAPE_PATH;
+        }
+        // The edges must alternate between horizontal and vertical.
+        final boolean firstHorizontal = points[1] == points[3];
+        for (int i = 0; i < 4; i++) {
+            final int j = (i + 1) % 4;
+            final boolean horizontal = points[i * 2 + 1] == points[j * 2 + 1]
+                    && points[i * 2] != points[j * 2];
+            final boolean vertical = points[i * 2] == points[j * 2]
+                    && points[i * 2 + 1] != points[j * 2 + 1];
+            if (!(i % 2 == 0 ? firstHorizontal ? horizontal : vertical
+                    : firstHorizontal ? vertical : horizontal)) {
+                return SHAPE_PATH;
+            }
+        }
+        bounds.set(points[0], points[1], points[4], points[5]);
+        bounds.sort();
+        return SHAPE_RECT;
+    }
+
+    /**
+     * Recognize a moveTo followed by two arcs going around a whole ellipse,
+     * i.e. two halves of the same axis aligned ellipse.
+     */
+    private static int getOvalShape(PathData data, int count, RectF bounds) {
+        final byte[] types = data.mTypes;
+        final int[] offsets = data.mOffsets;
+        final float[] val = data.mParams;
+        if (offsets[1] - offsets[0] != 2 || offsets[count] - offsets[1] != 14
+                || count > 3 || (count == 3 && offsets[2] - offsets[1] != 7)) {
+            return SHAPE_PATH;
+        }
+        for (int i = 1; i < count; i++) {
+            if (types[i] != 'a' && types[i] != 'A') {
+                return SHAPE_PATH;
+            }
+        }
+        // Both arcs may come from one command, find the command of the second.
+        final boolean secondRelative = types[count == 2 ? 1 : 2] == 'a';
+        final int first = offsets[1];
+        final int second = first + 7;
+
+        final float x0 = val[0];
+        final float y0 = val[1];
+        final float x1 = val[first + 5] + (types[1] == 'a' ? x0 : 0);
+        final float y1 = val[first + 6] + (types[1] == 'a' ? y0 : 0);
+        final float x2 = val[second + 5] + (secondRelative ? x1 : 0);
+        final float y2 = val[second + 6] + (secondRelative ? y1 : 0);
+
+        double rx = Math.abs(val[first + 0]);
+        double ry = Math.abs(val[first + 1]);
+        if (rx == 0 || ry == 0 || x2 != x0 || y2 != y0
+                || Math.abs(val[second + 0]) != rx || Math.abs(val[second + 1]) != ry
+                || (val[first + 4] != 0) != (val[second + 4] != 0)) {
+            return SHAPE_PATH;
+        }
+        // A rotated circle is still the same circle.
+        if (rx != ry && (val[first + 2] != 0 || val[second + 2] != 0)) {
+            return SHAPE_PATH;
+        }
+
+        // The arcs are halves of the ellipse when its radii are just large
+        // enough to join the points, or have to be scaled up to do so.
+        final double dx = (x1 - x0) / (2 * rx);
+        final double dy = (y1 - y0) / (2 * ry);
+        final double lambda = dx * dx + dy * dy;
+        if (lambda < 1 - OVAL_EPSILON) {
+            return SHAPE_PATH;
         }
-        if ((end - start) == 1 && start < pathData.length()) {
-            addNode(list, pathData.charAt(start), new float[0]);
+        if (lambda > 1) {
+            rx *= Math.sqrt(lambda);
+            ry *= Math.sqrt(lambda);
+        }
+        final double cx = (x0 + x1) / 2.0;
+        final double cy = (y0 + y1) / 2.0;
+        bounds.set((float) (cx - rx), (float) (cy - ry), (float) (cx + rx), (float) (cy + ry));
+        return SHAPE_OVAL;
+    }
+
+    /**
+     * @param source The PathData to be duplicated.
+     * @return a deep copy of the <code>source</code>.
+     */
+    public static PathData deepCopyPathData(PathData source) {
+        if (source == null) {
+            return null;
+        }
+        return new PathData(source);
+    }
+
+    /**
+     * @param dataFrom The source path represented as PathData
+     * @param dataTo The target path represented as PathData
+     * @return whether the <code>dataFrom</code> can morph into <code>dataTo</code>
+     */
+    public static boolean canMorph(PathData dataFrom, PathData dataTo) {
+        if (dataFrom == null || dataTo == null) {
+            return false;
         }
-        return list.toArray(new PathDataNode[list.size()]);
+
+        // Copies share the command layout, so this is usually an identity check.
+        return (dataFrom.mTypes == dataTo.mTypes || Arrays.equals(dataFrom.mTypes, dataTo.mTypes))
+                && (dataFrom.mOffsets == dataTo.mOffsets
+                || Arrays.equals(dataFrom.mOffsets, dataTo.mOffsets));
     }
 
     /**
@@ -124,11 +704,8 @@ public class PathParser {
     }
 
     private static int nextStart(String s, int end) {
-        char c;
-
         while (end < s.length()) {
-            c = s.charAt(end);
-            if (((c - 'A') * (c - 'Z') <= 0) || (((c - 'a') * (c - 'z') <= 0))) {
+            if (isCommand(s.charAt(end))) {
                 return end;
             }
             end++;
@@ -136,96 +713,412 @@ public class PathParser {
         return end;
     }
 
-    private static void addNode(ArrayList<PathDataNode> list, char cmd, float[] val) {
-        list.add(new PathDataNode(cmd, val));
+    private static boolean isCommand(char c) {
+        // 'e' and 'E' introduce exponents in numbers and are never commands.
+        return (((c - 'A') * (c - 'Z') <= 0) || ((c - 'a') * (c - 'z') <= 0))
+                && c != 'e' && c != 'E';
+    }
+
+    private static int skipSeparators(String s, int index) {
+        while (index < s.length()) {
+            char c = s.charAt(index);
+            if (c != ',' && c > ' ') {
+                return index;
+            }
+            index++;
+        }
+        return index;
     }
 
     private static class ExtractFloatResult {
-        // We need to return the position of the next separator and whether the
-        // next float starts with a '-'.
+        // We need to return the position of the character after the number
+        // and the number itself.
         int mEndPosition;
-        boolean mEndWithNegSign;
+        float mValue;
     }
 
     /**
-     * Parse the floats in the string.
-     * This is an optimized version of parseFloat(s.split(",|\\s"));
+     * Scan one number starting at <code>start</code> without creating any
+     * substring. The number ends at the first character that can't continue
+     * it, so ' ', ',' and a '-' that is not an exponent sign act as separators
+     * and a second '.' starts a new number ("0.5.5" is 0.5 followed by .5).
      *
-     * @param s the string containing a command and list of floats
-     * @return array of floats
-     */
-    private static float[] getFloats(String s) {
-        if (s.charAt(0) == 'z' | s.charAt(0) == 'Z') {
-            return new float[0];
-        }
-        try {
-            float[] results = new float[s.length()];
-            int count = 0;
-            int startPosition = 1;
-            int endPosition = 0;
-
-            ExtractFloatResult result = new ExtractFloatResult();
-            int totalLength = s.length();
-
-            // The startPosition should always be the first character of the
-            // current number, and endPosition is the character after the current
-            // number.
-            while (startPosition < totalLength) {
-                extract(s, startPosition, result);
-                endPosition = result.mEndPosition;
-
-                if (startPosition < endPosition) {
-                    results[count++] = Float.parseFloat(
-                            s.substring(startPosition, endPosition));
+     * @param s the string to scan
+     * @param start the position of the first character of the number
+     * @param result the result of the extraction, holding the parsed value and
+     * the position right after it. The end position equals <code>start</code>
+     * when no number could be read.
+     */
+    private static void extract(String s, int start, ExtractFloatResult result) {
+        final int length = s.length();
+        int index = start;
+        boolean negative = false;
+
+        char c = s.charAt(index);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            index++;
+        }
+
+        long mantissa = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean seenDot = false;
+        for (; index < length; index++) {
+            c = s.charAt(index);
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (mantissa < MAX_MANTISSA) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (seenDot) {
+                        exponent--;
+                    }
+                } else if (!seenDot) {
+                    // Out of precision, only the magnitude matters from here on.
+                    exponent++;
                 }
+            } else if (c == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                break;
+            }
+        }
 
-                if (result.mEndWithNegSign) {
-                    // Keep the '-' sign with next number.
-                    startPosition = endPosition;
-                } else {
-                    startPosition = endPosition + 1;
+        if (!seenDigit) {
+            result.mEndPosition = start;
+            return;
+        }
+
+        if (index < length && (s.charAt(index) == 'e' || s.charAt(index) == 'E')) {
+            int expIndex = index + 1;
+            boolean negativeExp = false;
+            if (expIndex < length && (s.charAt(expIndex) == '-' || s.charAt(expIndex) == '+')) {
+                negativeExp = s.charAt(expIndex) == '-';
+                expIndex++;
+            }
+            if (expIndex < length && s.charAt(expIndex) >= '0' && s.charAt(expIndex) <= '9') {
+                int exp = 0;
+                while (expIndex < length && s.charAt(expIndex) >= '0' && s.charAt(expIndex) <= '9') {
+                    if (exp < MAX_EXPONENT) {
+                        exp = exp * 10 + (s.charAt(expIndex) - '0');
+                    }
+                    expIndex++;
                 }
+                exponent += negativeExp ? -exp : exp;
+                index = expIndex;
             }
-            return Arrays.copyOf(results, count);
-        } catch (NumberFormatException e) {
-            Log.e(LOGTAG, "error in parsing \"" + s + "\"");
-            throw e;
         }
+
+        double value = mantissa;
+        if (exponent < 0) {
+            value /= powerOfTen(-exponent);
+        } else if (exponent > 0) {
+            value *= powerOfTen(exponent);
+        }
+        result.mValue = (float) (negative ? -value : value);
+        result.mEndPosition = index;
+    }
+
+    private static double powerOfTen(int exponent) {
+        if (exponent < POWERS_OF_TEN.length) {
+            return POWERS_OF_TEN[exponent];
+        }
+        return Math.pow(10, exponent);
     }
 
     /**
-     * Calculate the position of the next comma or space or negative sign
-     * @param s the string to search
-     * @param start the position to start searching
-     * @param result the result of the extraction, including the position of the
-     * the starting position of next number, whether it is ending with a '-'.
+     * Accumulates commands and parameters into growable arrays and packs them
+     * into a PathData once complete.
      */
-    private static void extract(String s, int start, ExtractFloatResult result) {
-        // Now looking for ' ', ',' or '-' from the start.
-        int currentIndex = start;
-        boolean foundSeparator = false;
-        result.mEndWithNegSign = false;
-        for (; currentIndex < s.length(); currentIndex++) {
-            char currentChar = s.charAt(currentIndex);
-            switch (currentChar) {
-                case ' ':
-                case ',':
-                    foundSeparator = true;
-                    break;
-                case '-':
-                    if (currentIndex != start) {
-                        foundSeparator = true;
-                        result.mEndWithNegSign = true;
-                    }
-                    break;
+    private static class PathDataBuilder {
+        private byte[] mTypes = new byte[INITIAL_SCRATCH_SIZE];
+        private int[] mOffsets = new int[INITIAL_SCRATCH_SIZE + 1];
+        private float[] mParams = new float[INITIAL_SCRATCH_SIZE * 2];
+        private int mCommandCount;
+        private int mParamCount;
+
+        void addCommand(char cmd) {
+            if (mCommandCount == mTypes.length) {
+                mTypes = Arrays.copyOf(mTypes, mCommandCount * 2);
+                mOffsets = Arrays.copyOf(mOffsets, mCommandCount * 2 + 1);
             }
-            if (foundSeparator) {
-                break;
+            mTypes[mCommandCount] = (byte) cmd;
+            mOffsets[mCommandCount] = mParamCount;
+            mCommandCount++;
+        }
+
+        void addParam(float value) {
+            if (mParamCount == mParams.length) {
+                mParams = Arrays.copyOf(mParams, mParamCount * 2);
             }
+            mParams[mParamCount++] = value;
+        }
+
+        // Absolute commands of the same type are merged into one command.
+        private void continueCommand(char cmd) {
+            if (mCommandCount == 0 || mTypes[mCommandCount - 1] != cmd) {
+                addCommand(cmd);
+            }
+        }
+
+        void moveTo(float x, float y) {
+            continueCommand('M');
+            addParam(x);
+            addParam(y);
+        }
+
+        void lineTo(float x, float y) {
+            continueCommand('L');
+            addParam(x);
+            addParam(y);
+        }
+
+        void quadTo(float x1, float y1, float x2, float y2) {
+            continueCommand('Q');
+            addParam(x1);
+            addParam(y1);
+            addParam(x2);
+            addParam(y2);
+        }
+
+        void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+            continueCommand('C');
+            addParam(x1);
+            addParam(y1);
+            addParam(x2);
+            addParam(y2);
+            addParam(x3);
+            addParam(y3);
+        }
+
+        void close() {
+            addCommand('Z');
+        }
+
+        PathData build() {
+            mOffsets[mCommandCount] = mParamCount;
+            return new PathData(Arrays.copyOf(mTypes, mCommandCount),
+                    Arrays.copyOf(mOffsets, mCommandCount + 1),
+                    Arrays.copyOf(mParams, mParamCount));
+        }
+    }
+
+    /**
+     * PathData is the packed form of a whole "d" attribute. Instead of one
+     * object per command it keeps the command types in a single byte array and
+     * the parameters of all commands in one contiguous float array, where the
+     * parameters of command i are <code>mParams[mOffsets[i]]</code> up to
+     * <code>mParams[mOffsets[i + 1] - 1]</code>.
+     * The command layout (types and offsets) never changes after parsing, so
+     * copies share it and only duplicate the parameters. Parsed instances are
+     * shared process-wide, so only this package can modify a PathData.
+     */
+    public static class PathData {
+        final byte[] mTypes;
+        final int[] mOffsets;
+        final float[] mParams;
+        // The most parameters a single command has, part of the layout.
+        private final int mMaxParamCount;
+
+        private PathData(byte[] types, int[] offsets, float[] params) {
+            mTypes = types;
+            mOffsets = offsets;
+            mParams = params;
+            mMaxParamCount = getMaxParamCount(offsets);
+        }
+
+        public PathData(PathData copy) {
+            mTypes = copy.mTypes;
+            mOffsets = copy.mOffsets;
+            mParams = Arrays.copyOf(copy.mParams, copy.mParams.length);
+            mMaxParamCount = copy.mMaxParamCount;
+        }
+
+        public PathData(PathDataNode[] nodes) {
+            int paramCount = 0;
+            for (int i = 0; i < nodes.length; i++) {
+                paramCount += nodes[i].mParams.length;
+            }
+            mTypes = new byte[nodes.length];
+            mOffsets = new int[nodes.length + 1];
+            mParams = new float[paramCount];
+            int offset = 0;
+            for (int i = 0; i < nodes.length; i++) {
+                final float[] params = nodes[i].mParams;
+                mTypes[i] = (byte) nodes[i].mType;
+                mOffsets[i] = offset;
+                System.arraycopy(params, 0, mParams, offset, params.length);
+                offset += params.length;
+            }
+            mOffsets[nodes.length] = offset;
+            mMaxParamCount = getMaxParamCount(mOffsets);
+        }
+
+        private static int getMaxParamCount(int[] offsets) {
+            int maxParams = 0;
+            for (int i = 0; i < offsets.length - 1; i++) {
+                maxParams = Math.max(maxParams, offsets[i + 1] - offsets[i]);
+            }
+            return maxParams;
+        }
+
+        /**
+         * @return the number of floats of the scratch array
+         * {@link #toPath(Path, PathData, float, float, float[])} needs.
+         */
+        int getMorphScratchSize() {
+            return 4 + mMaxParamCount;
+        }
+
+        /**
+         * @return the number of commands in this path.
+         */
+        public int size() {
+            return mTypes.length;
+        }
+
+        /**
+         * @return a PathDataNode array holding a copy of this path's commands.
+         */
+        public PathDataNode[] toNodes() {
+            PathDataNode[] nodes = new PathDataNode[mTypes.length];
+            for (int i = 0; i < mTypes.length; i++) {
+                final int start = mOffsets[i];
+                final int end = mOffsets[i + 1];
+                nodes[i] = new PathDataNode((char) mTypes[i],
+                        start == end ? EMPTY_PARAMS : Arrays.copyOfRange(mParams, start, end));
+            }
+            return nodes;
+        }
+
+        /**
+         * Update this path's parameters to match the source.
+         * Before calling this, make sure canMorph(this, source) is true.
+         *
+         * @param source The source path.
+         */
+        void setPathData(PathData source) {
+            System.arraycopy(source.mParams, 0, mParams, 0, source.mParams.length);
+        }
+
+        /**
+         * This path's parameters will be interpolated between <code>dataFrom</code>
+         * and <code>dataTo</code> according to the <code>fraction</code>.
+         * All three paths must be able to morph into each other.
+         *
+         * @param dataFrom The start value as a PathData.
+         * @param dataTo The end value as a PathData.
+         * @param fraction The fraction to interpolate.
+         */
+        void interpolatePathData(PathData dataFrom, PathData dataTo, float fraction) {
+            final float[] from = dataFrom.mParams;
+            final float[] to = dataTo.mParams;
+            final float[] params = mParams;
+            for (int i = 0; i < params.length; i++) {
+                params[i] = from[i] * (1 - fraction) + to[i] * fraction;
+            }
+        }
+
+        /**
+         * Convert this PathData to Path.
+         *
+         * @param path The target Path object.
+         */
+        public void toPath(Path path) {
+            toPath(path, 0);
+        }
+
+        /**
+         * Convert this PathData to Path, approximating arcs with as few cubic
+         * Bezier segments as the tolerance allows.
+         *
+         * @param path The target Path object.
+         * @param tolerance The distance arcs may deviate by, in path units, or 0
+         *                  for the default of one segment per 45 degrees.
+         */
+        public void toPath(Path path, float tolerance) {
+            float[] current = new float[4];
+            char previousCommand = 'm';
+            for (int i = 0; i < mTypes.length; i++) {
+                final char cmd = (char) mTypes[i];
+                PathDataNode.addCommand(path, current, previousCommand, cmd, mParams,
+                        mOffsets[i], mOffsets[i + 1], tolerance);
+                previousCommand = cmd;
+            }
+        }
+
+        /**
+         * Convert the path between this PathData and <code>dataTo</code> at
+         * the given <code>fraction</code> to Path, interpolating each command's
+         * parameters as it is added. Nothing is written back to this PathData.
+         * Before calling this, make sure canMorph(this, dataTo) is true.
+         *
+         * @param path The target Path object.
+         * @param dataTo The end value as a PathData.
+         * @param fraction The fraction to interpolate.
+         */
+        public void toPath(Path path, PathData dataTo, float fraction) {
+            toPath(path, dataTo, fraction, 0);
+        }
+
+        /**
+         * Same as {@link #toPath(Path, PathData, float)}, approximating arcs
+         * within the given tolerance as {@link #toPath(Path, float)} does.
+         */
+        public void toPath(Path path, PathData dataTo, float fraction, float tolerance) {
+            toPath(path, dataTo, fraction, tolerance, new float[getMorphScratchSize()]);
+        }
+
+        /**
+         * Same as {@link #toPath(Path, PathData, float, float)}, without
+         * allocating anything: the current point and the interpolated
+         * parameters of each command are kept in <code>scratch</code>, which
+         * must hold at least {@link #getMorphScratchSize()} floats.
+         */
+        void toPath(Path path, PathData dataTo, float fraction, float tolerance,
+                    float[] scratch) {
+            final float[] from = mParams;
+            final float[] to = dataTo.mParams;
+            // scratch[0..3] is the current point and control point, the
+            // command's parameters follow.
+            scratch[0] = scratch[1] = scratch[2] = scratch[3] = 0;
+            char previousCommand = 'm';
+            for (int i = 0; i < mTypes.length; i++) {
+                final char cmd = (char) mTypes[i];
+                final int start = mOffsets[i];
+                final int count = mOffsets[i + 1] - start;
+                for (int j = 0; j < count; j++) {
+                    scratch[4 + j] = from[start + j] * (1 - fraction) + to[start + j] * fraction;
+                }
+                PathDataNode.addCommand(path, scratch, previousCommand, cmd, scratch, 4,
+                        4 + count, tolerance);
+                previousCommand = cmd;
+            }
+        }
+    }
+
+    /**
+     * A point of a path morph animation: the path between <code>mFrom</code>
+     * and <code>mTo</code> at <code>mFraction</code>. It only holds
+     * references to its values, which must not be modified while in use.
+     */
+    public static class PathMorph {
+        PathData mFrom;
+        PathData mTo;
+        float mFraction;
+        // This point already converted to Path, or null. Must not be modified.
+        Path mPath;
+
+        public void set(PathData dataFrom, PathData dataTo, float fraction) {
+            set(dataFrom, dataTo, fraction, null);
+        }
+
+        void set(PathData dataFrom, PathData dataTo, float fraction, Path path) {
+            mFrom = dataFrom;
+            mTo = dataTo;
+            mFraction = fraction;
+            mPath = path;
         }
-        // When there is nothing found, then we put the end position to the end
-        // of the string.
-        result.mEndPosition = currentIndex;
     }
 
     /**
@@ -257,7 +1150,8 @@ public class PathParser {
             float[] current = new float[4];
             char previousCommand = 'm';
             for (int i = 0; i < node.length; i++) {
-                addCommand(path, current, previousCommand, node[i].mType, node[i].mParams);
+                addCommand(path, current, previousCommand, node[i].mType, node[i].mParams,
+                        0, node[i].mParams.length, 0);
                 previousCommand = node[i].mType;
             }
         }
@@ -279,8 +1173,9 @@ public class PathParser {
             }
         }
 
-        private static void addCommand(Path path, float[] current,
-                                       char previousCmd, char cmd, float[] val) {
+        private static void addCommand(Path path, float[] current, char previousCmd,
+                                       char cmd, float[] val, int start, int end,
+                                       float tolerance) {
 
             int incr = 2;
             float currentX = current[0];
@@ -324,7 +1219,9 @@ public class PathParser {
                     incr = 7;
                     break;
             }
-            for (int k = 0; k < val.length; k += incr) {
+            // Parameters of this command are val[start] .. val[end - 1], any
+            // incomplete trailing group is ignored.
+            for (int k = start; k <= end - incr; k += incr) {
                 switch (cmd) {
                     case 'm': // moveto - Start a new sub-path (relative)
                         path.rMoveTo(val[k + 0], val[k + 1]);
@@ -462,7 +1359,7 @@ public class PathParser {
                         break;
                     case 'a': // Draws an elliptical arc
                         // (rx ry x-axis-rotation large-arc-flag sweep-flag x y)
-                        drawArc(path,
+                        drawArc(path, null,
                                 currentX,
                                 currentY,
                                 val[k + 5] + currentX,
@@ -471,14 +1368,15 @@ public class PathParser {
                                 val[k + 1],
                                 val[k + 2],
                                 val[k + 3] != 0,
-                                val[k + 4] != 0);
+                                val[k + 4] != 0,
+                                tolerance);
                         currentX += val[k + 5];
                         currentY += val[k + 6];
                         ctrlPointX = currentX;
                         ctrlPointY = currentY;
                         break;
                     case 'A': // Draws an elliptical arc
-                        drawArc(path,
+                        drawArc(path, null,
                                 currentX,
                                 currentY,
                                 val[k + 5],
@@ -487,7 +1385,8 @@ public class PathParser {
                                 val[k + 1],
                                 val[k + 2],
                                 val[k + 3] != 0,
-                                val[k + 4] != 0);
+                                val[k + 4] != 0,
+                                tolerance);
                         currentX = val[k + 5];
                         currentY = val[k + 6];
                         ctrlPointX = currentX;
@@ -502,7 +1401,12 @@ public class PathParser {
             current[3] = ctrlPointY;
         }
 
+        /**
+         * Converts an arc to cubic Bezier segments and records them either in
+         * <code>p</code> or, when it is null, in <code>builder</code>.
+         */
         private static void drawArc(Path p,
+                                    PathDataBuilder builder,
                                     float x0,
                                     float y0,
                                     float x1,
@@ -511,7 +1415,8 @@ public class PathParser {
                                     float b,
                                     float theta,
                                     boolean isMoreThanHalf,
-                                    boolean isPositiveArc) {
+                                    boolean isPositiveArc,
+                                    float tolerance) {
 
             /* Convert rotation angle from degrees to radians */
             double thetaD = Math.toRadians(theta);
@@ -540,8 +1445,8 @@ public class PathParser {
             if (disc < 0.0) {
                 Log.w(LOGTAG, "Points are too far apart " + dsq);
                 float adjust = (float) (Math.sqrt(dsq) / 1.99999);
-                drawArc(p, x0, y0, x1, y1, a * adjust,
-                        b * adjust, theta, isMoreThanHalf, isPositiveArc);
+                drawArc(p, builder, x0, y0, x1, y1, a * adjust,
+                        b * adjust, theta, isMoreThanHalf, isPositiveArc, tolerance);
                 return; /* Points are too far apart */
             }
             double s = Math.sqrt(disc);
@@ -576,13 +1481,32 @@ public class PathParser {
             cx = cx * cosTheta - cy * sinTheta;
             cy = tcx * sinTheta + cy * cosTheta;
 
-            arcToBezier(p, cx, cy, a, b, x0, y0, thetaD, eta0, sweep);
+            arcToBezier(p, builder, cx, cy, a, b, x0, y0, thetaD, eta0, sweep, tolerance);
+        }
+
+        /**
+         * @return the number of cubic Bezier segments approximating an arc of
+         * the given sweep and radius within <code>tolerance</code>, or one
+         * segment per 45 degrees when there is no tolerance.
+         */
+        private static int getArcSegmentCount(double sweep, double radius, float tolerance) {
+            if (tolerance <= 0 || radius <= 0) {
+                // Maximum of 45 degrees per cubic Bezier segment
+                return Math.abs((int) Math.ceil(sweep * 4 / Math.PI));
+            }
+            // A segment spanning an angle eta deviates from the arc by about
+            // radius * 4 / 27 * (eta / 4)^6. Segments are capped at 90 degrees,
+            // beyond which the approximation quickly degrades.
+            final double maxSweep = Math.min(Math.PI / 2,
+                    4 * Math.pow(27 * tolerance / (4 * radius), 1.0 / 6));
+            return (int) Math.ceil(Math.abs(sweep) / maxSweep);
         }
 
         /**
          * Converts an arc to cubic Bezier segments and records them in p.
          *
-         * @param p The target for the cubic Bezier segments
+         * @param p The target for the cubic Bezier segments, or null to use <code>builder</code>
+         * @param builder The target for the cubic Bezier segments when <code>p</code> is null
          * @param cx The x coordinate center of the ellipse
          * @param cy The y coordinate center of the ellipse
          * @param a The radius of the ellipse in the horizontal direction
@@ -592,8 +1516,11 @@ public class PathParser {
          * @param theta The angle that the ellipse bounding rectangle makes with horizontal plane
          * @param start The start angle of the arc on the ellipse
          * @param sweep The angle (positive or negative) of the sweep of the arc on the ellipse
+         * @param tolerance The distance the segments may deviate from the arc, or 0
+         *                  for one segment per 45 degrees
          */
         private static void arcToBezier(Path p,
+                                        PathDataBuilder builder,
                                         double cx,
                                         double cy,
                                         double a,
@@ -602,12 +1529,12 @@ public class PathParser {
                                         double e1y,
                                         double theta,
                                         double start,
-                                        double sweep) {
+                                        double sweep,
+                                        float tolerance) {
             // Taken from equations at: http://spaceroots.org/documents/ellipse/node8.html
             // and http://www.spaceroots.org/documents/ellipse/node22.html
 
-            // Maximum of 45 degrees per cubic Bezier segment
-            int numSegments = Math.abs((int) Math.ceil(sweep * 4 / Math.PI));
+            int numSegments = getArcSegmentCount(sweep, Math.max(a, b), tolerance);
 
             double eta1 = start;
             double cosTheta = Math.cos(theta);
@@ -634,12 +1561,21 @@ public class PathParser {
                 double q2x = e2x - alpha * ep2x;
                 double q2y = e2y - alpha * ep2y;
 
-                p.cubicTo((float) q1x,
-                        (float) q1y,
-                        (float) q2x,
-                        (float) q2y,
-                        (float) e2x,
-                        (float) e2y);
+                if (p != null) {
+                    p.cubicTo((float) q1x,
+                            (float) q1y,
+                            (float) q2x,
+                            (float) q2y,
+                            (float) e2x,
+                            (float) e2y);
+                } else {
+                    builder.cubicTo((float) q1x,
+                            (float) q1y,
+                            (float) q2x,
+                            (float) q2y,
+                            (float) e2x,
+                            (float) e2y);
+                }
                 eta1 = eta2;
                 e1x = e2x;
                 e1y = e2y;
@@ -0,0 +1,234 @@
+package com.wnafee.vector.compat;
+
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Bitmap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Process wide cache of rasterized vector trees.
+ * <p/>
+ * Bitmaps are keyed by the content they were drawn from and their size, so
+ * every drawable showing the same tree at the same size shares one bitmap, no
+ * matter how many instances or mutated copies of the constant state exist.
+ * Tint, root alpha and mirroring are applied when the bitmap is drawn to the
+ * screen and are therefore not part of the key.
+ * <p/>
+ * Entries are reference counted. A referenced entry is never evicted; once the
+ * last reference is released it is kept around, least recently used first,
+ * until the total size of the cache goes over its budget.
+ */
+public final class RasterCache {
+
+    private static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+    private static final HashMap<Key, Entry> sEntries = new HashMap<Key, Entry>();
+    // Entries without references, least recently released first.
+    private static final LinkedHashMap<Key, Entry> sUnusedEntries =
+            new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    private static int sMaxSize = DEFAULT_MAX_SIZE;
+    private static int sSize;
+    private static int sHitCount;
+    private static int sMissCount;
+    private static int sEvictionCount;
+
+    private RasterCache() {
+    }
+
+    /**
+     * Get the bitmap holding the given content at the given size, allocating an
+     * empty one if there is none. The caller owns a reference to the returned
+     * entry until it calls {@link #release(Entry)}, and must draw the content
+     * into it first if {@link Entry#isDrawn()} is false.
+     *
+     * @param content An object identifying what is drawn in the bitmap. It must
+     *                not be reused once the content changes.
+     * @param config  The config of the bitmap if it has to be allocated. It must
+     *                only depend on the content.
+     */
+    static synchronized Entry acquire(Object content, int width, int height,
+                                      Bitmap.Config config) {
+        final Key key = new Key(content, width, height);
+        Entry entry = sEntries.get(key);
+        if (entry != null) {
+            sHitCount++;
+            if (entry.mRefCount++ == 0) {
+                sUnusedEntries.remove(key);
+            }
+            return entry;
+        }
+
+        sMissCount++;
+        entry = new Entry(key, BitmapPool.obtain(width, height, config));
+        entry.mRefCount = 1;
+        sEntries.put(key, entry);
+        sSize += entry.getByteCount();
+        trimToSize(sMaxSize);
+        return entry;
+    }
+
+    /**
+     * Take another reference to an entry the caller already holds one to, to
+     * be dropped with {@link #release(Entry)}.
+     */
+    static synchronized void retain(Entry entry) {
+        if (entry.mKey.mContent != null && entry.mRefCount++ == 0) {
+            sUnusedEntries.remove(entry.mKey);
+        }
+    }
+
+    /**
+     * Allocate a bitmap that is never shared, for content that changes on every frame.
+     */
+    static Entry createPrivate(int width, int height) {
+        return new Entry(new Key(null, width, height),
+                BitmapPool.obtain(width, height, Bitmap.Config.ARGB_8888));
+    }
+
+    /**
+     * Drop a reference obtained from {@link #acquire(Object, int, int, Bitmap.Config)}.
+     */
+    static synchronized void release(Entry entry) {
+        if (entry.mKey.mContent == null) {
+            // Private entries are not tracked by the cache, nobody else uses them.
+            BitmapPool.release(entry.mBitmap);
+            return;
+        }
+        if (--entry.mRefCount == 0) {
+            sUnusedEntries.put(entry.mKey, entry);
+            trimToSize(sMaxSize);
+        }
+    }
+
+    private static void trimToSize(int maxSize) {
+        final Iterator<Entry> it = sUnusedEntries.values().iterator();
+        while (sSize > maxSize && it.hasNext()) {
+            final Entry entry = it.next();
+            it.remove();
+            sEntries.remove(entry.mKey);
+            sSize -= entry.getByteCount();
+            sEvictionCount++;
+            BitmapPool.release(entry.mBitmap);
+        }
+    }
+
+    /**
+     * Set how many bytes of bitmaps the cache may hold. Bitmaps still used by a
+     * drawable are never evicted, so the cache can temporarily go over budget.
+     */
+    public static synchronized void setMaxSize(int maxBytes) {
+        sMaxSize = maxBytes;
+        trimToSize(sMaxSize);
+    }
+
+    /**
+     * @return the number of bytes of bitmaps currently held by the cache.
+     */
+    public static synchronized int getSize() {
+        return sSize;
+    }
+
+    /**
+     * @return the number of lookups that found an existing bitmap.
+     */
+    public static synchronized int getHitCount() {
+        return sHitCount;
+    }
+
+    /**
+     * @return the number of lookups that had to allocate a new bitmap.
+     */
+    public static synchronized int getMissCount() {
+        return sMissCount;
+    }
+
+    /**
+     * @return the number of unused bitmaps dropped to respect the budget.
+     */
+    public static synchronized int getEvictionCount() {
+        return sEvictionCount;
+    }
+
+    /**
+     * Drop every bitmap no drawable is using, e.g. when the app is asked to trim memory.
+     */
+    public static synchronized void clear() {
+        trimToSize(0);
+    }
+
+    private static class Key {
+        final Object mContent;
+        final int mWidth;
+        final int mHeight;
+
+        Key(Object content, int width, int height) {
+            mContent = content;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return mContent == other.mContent && mWidth == other.mWidth
+                    && mHeight == other.mHeight;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(mContent) * 31 + mWidth) * 31 + mHeight;
+        }
+    }
+
+    /**
+     * A rasterization shared by every drawable holding a reference to it.
+     */
+    static class Entry {
+        final Key mKey;
+        final Bitmap mBitmap;
+        int mRefCount;
+        private volatile boolean mDrawn;
+
+        Entry(Key key, Bitmap bitmap) {
+            mKey = key;
+            mBitmap = bitmap;
+        }
+
+        boolean canReuseBitmap(Object content, int width, int height) {
+            return mKey.mContent == content && mKey.mWidth == width && mKey.mHeight == height;
+        }
+
+        boolean isDrawn() {
+            return mDrawn;
+        }
+
+        void setDrawn() {
+            mDrawn = true;
+        }
+
+        int getByteCount() {
+            return BitmapPool.getByteCount(mBitmap);
+        }
+    }
+}
@@ -19,6 +19,10 @@ import com.wnafee.vector.R;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import android.animation.Animator;
+import android.animation.AnimatorSet;
+import android.animation.ObjectAnimator;
+import android.animation.PropertyValuesHolder;
 import android.content.Context;
 import android.content.res.ColorStateList;
 import android.content.res.Resources;
@@ -36,17 +40,24 @@ import android.graphics.PixelFormat;
 import android.graphics.PorterDuff.Mode;
 import android.graphics.PorterDuffColorFilter;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.Region;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.support.v4.util.ArrayMap;
 import android.util.AttributeSet;
+import android.util.Property;
 import android.util.Log;
 import android.util.Xml;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Stack;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 //TODO: Add theme support - canApplyTheme() and applyTheme()
 public class VectorDrawable extends DrawableCompat implements Tintable{
@@ -69,6 +80,38 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
 
     private static final boolean DBG_VECTOR_DRAWABLE = false;
 
+    // Maximum number of bitmap layers holding the static parts of an animated
+    // tree, more static runs than this and the whole tree is drawn every frame.
+    private static final int MAX_STATIC_LAYERS = 2;
+
+    // Default memory budget of the per state bitmap cache, enough to keep a
+    // typical icon rasterized at a few sizes at once.
+    private static final int DEFAULT_BITMAP_CACHE_SIZE = 1024 * 1024;
+
+    // Returned by VPathRenderer.getMonochromeColor() when the tree uses more
+    // than one color.
+    private static final int NOT_MONOCHROME = -1;
+    private static final int NO_COLOR = -2;
+
+    // How far, in pixels, generated geometry may deviate from the exact shape.
+    static final float PATH_TOLERANCE = 0.25f;
+
+    /**
+     * @return the tolerance for paths drawn through <code>matrix</code>:
+     * PATH_TOLERANCE pixels in path units, rounded down to a power of two so
+     * that slightly different scales build the same Path.
+     */
+    static float getPathTolerance(Matrix matrix) {
+        final float scale = matrix.mapRadius(1f);
+        if (!(scale > 0) || Float.isInfinite(scale)) {
+            // Nothing visible is drawn, any tolerance will do.
+            return PATH_TOLERANCE;
+        }
+        return Math.scalb(1f, Math.getExponent(PATH_TOLERANCE / scale));
+    }
+
+    private static ExecutorService sPrewarmExecutor;
+
     private VectorDrawableState mVectorState;
 
     private PorterDuffColorFilter mTintFilter;
@@ -105,10 +148,61 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
         return this;
     }
 
-    Object getTargetByName(String name) {
+    /**
+     * @return the typed property of an animation target with the given name, or
+     * null if the attribute is animated through reflection.
+     */
+    static Property<?, ?> getAnimatedProperty(Object target, String propertyName) {
+        // Floats and ints stay on reflection: Property<T, Float> boxes, FloatProperty is API 24.
+        if (target instanceof VPath && VPath.PATH_DATA.getName().equals(propertyName)) {
+            return VPath.PATH_DATA;
+        }
+        return null;
+    }
+
+    /**
+     * Bind the object animators of an animator, which animate attributes by
+     * name, to the typed properties of their target, see
+     * {@link #getAnimatedProperty(Object, String)}. Frames then call those
+     * setters directly instead of going through reflection.
+     */
+    static void bindAnimatedProperties(Animator animator, Object target) {
+        if (animator instanceof AnimatorSet) {
+            final ArrayList<Animator> children = ((AnimatorSet) animator).getChildAnimations();
+            for (int i = 0; i < children.size(); i++) {
+                bindAnimatedProperties(children.get(i), target);
+            }
+        } else if (animator instanceof ObjectAnimator) {
+            final PropertyValuesHolder[] values = ((ObjectAnimator) animator).getValues();
+            if (values == null) {
+                return;
+            }
+            for (int i = 0; i < values.length; i++) {
+                final Property<?, ?> property =
+                        getAnimatedProperty(target, values[i].getPropertyName());
+                if (property != null) {
+                    values[i].setProperty(property);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the named group, path or renderer of the tree, which the caller
+     * must not modify as it may be shared with other drawables.
+     */
+    Object findTargetByName(String name) {
         return mVectorState.mVPathRenderer.mVGTargetsMap.get(name);
     }
 
+    /**
+     * @return the named group, path or renderer of the tree, which the caller
+     * is free to modify. Only call it on a mutated drawable.
+     */
+    Object getTargetByName(String name) {
+        return mVectorState.mVPathRenderer.getTarget(name);
+    }
+
     @Override
     public Drawable.ConstantState getConstantState() {
         mVectorState.mChangingConfigurations = getChangingConfigurations();
@@ -141,17 +235,15 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
                 mVectorState.mVPathRenderer.draw(
                         canvas, bounds.width(), bounds.height(), colorFilter);
             } else {
-                mVectorState.createCachedBitmapIfNeeded(bounds);
+                // The tree changes on every frame, so the bitmap can't be shared.
+                mVectorState.createCachedBitmapIfNeeded(bounds, false);
                 mVectorState.updateCachedBitmap(bounds);
                 mVectorState.drawCachedBitmapWithRootAlpha(canvas, colorFilter);
             }
         } else {
             // Static Vector Drawable case.
-            mVectorState.createCachedBitmapIfNeeded(bounds);
-            if (!mVectorState.canReuseCache()) {
-                mVectorState.updateCachedBitmap(bounds);
-                mVectorState.updateCacheStates();
-            }
+            mVectorState.createCachedBitmapIfNeeded(bounds, true);
+            mVectorState.updateCachedBitmapIfNeeded(bounds);
             mVectorState.drawCachedBitmapWithRootAlpha(canvas, colorFilter);
         }
 
@@ -451,6 +543,8 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
             eventType = parser.next();
         }
 
+        pathRenderer.foldStaticGroups(pathRenderer.mRootGroup);
+
         // Print the tree out for debug.
         if (DBG_VECTOR_DRAWABLE) {
             printGroupTree(pathRenderer.mRootGroup, 0);
@@ -502,6 +596,78 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
         mAllowCaching = allowCaching;
     }
 
+    /**
+     * Set how many bytes of rasterized bitmaps may be kept for the sizes this
+     * drawable is drawn at. The most recently drawn bitmap is always kept, even
+     * if it is larger than the budget. The budget is part of the constant state,
+     * so it is shared with drawables that have not been mutated.
+     *
+     * @param maxBytes The bitmap cache budget in bytes.
+     */
+    public void setBitmapCacheSize(int maxBytes) {
+        mVectorState.setBitmapCacheSize(maxBytes);
+    }
+
+    /**
+     * Rasterize this drawable at the given size on a background thread, so that
+     * the first {@link #draw(Canvas)} at that size only has to draw the cached
+     * bitmap. Drawing before the returned future completes rasterizes on the
+     * drawing thread, unless the background thread already started, in which
+     * case it waits for it.
+     * <p/>
+     * Tint, alpha and mirroring are applied when the cached bitmap is drawn, so
+     * the same rasterization serves all of them. Animated vector drawables don't
+     * keep a cached bitmap and are not prewarmed.
+     * <p/>
+     * Must be called on the thread that draws the drawable, usually the UI
+     * thread, like any other method changing its state.
+     *
+     * @param width The width in pixels of the bounds the drawable will be drawn at.
+     * @param height The height in pixels of the bounds the drawable will be drawn at.
+     * @return A future completing once the bitmap is ready.
+     */
+    public Future<?> prewarm(int width, int height) {
+        if (!mAllowCaching || width <= 0 || height <= 0) {
+            return completedFuture();
+        }
+        return mVectorState.prewarm(width, height);
+    }
+
+    private static Future<?> completedFuture() {
+        final FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, null);
+        task.run();
+        return task;
+    }
+
+    private static synchronized ExecutorService getPrewarmExecutor() {
+        if (sPrewarmExecutor == null) {
+            sPrewarmExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "VectorDrawable prewarm");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sPrewarmExecutor;
+    }
+
+    /**
+     * Tell the renderer which groups and paths are animated, so that the rest
+     * of the tree can be kept in cached bitmap layers.
+     *
+     * @param targets The objects returned by getTargetByName() for every animator.
+     */
+    void setAnimatedTargets(ArrayList<Object> targets) {
+        mVectorState.mVPathRenderer.setAnimatedTargets(targets);
+    }
+
     private boolean needMirroring() {
         return isAutoMirrored() && getLayoutDirection() == 1; // 1 is for LayoutDirection.RTL
     }
@@ -527,12 +693,16 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
         Mode mTintMode = DEFAULT_TINT_MODE;
         boolean mAutoMirrored;
 
-        Bitmap mCachedBitmap;
-        int[] mCachedThemeAttrs;
-        ColorStateList mCachedTint;
-        Mode mCachedTintMode;
-        int mCachedRootAlpha;
-        boolean mCachedAutoMirrored;
+        // References to rasterizations of the tree in the RasterCache, one per
+        // size, most recently used first. mCachedBitmap is the entry for the
+        // bounds being drawn.
+        final ArrayList<RasterCache.Entry> mCachedBitmaps = new ArrayList<RasterCache.Entry>();
+        RasterCache.Entry mCachedBitmap;
+        // The color of the tree when the cached bitmaps are ALPHA_8 masks.
+        int mMaskColor;
+        int mCachedBitmapsSize;
+        int mBitmapCacheMaxSize = DEFAULT_BITMAP_CACHE_SIZE;
+        // Set when the tree changed and every cached bitmap is stale.
         boolean mCacheDirty;
 
         /**
@@ -540,28 +710,34 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
          */
         Paint mTempPaint;
 
-        // Deep copy for mutate() or implicitly mutate.
+        // Copy for mutate() or implicitly mutate. The tree is shared until
+        // parts of it are modified.
         public VectorDrawableState(VectorDrawableState copy) {
             if (copy != null) {
                 mThemeAttrs = copy.mThemeAttrs;
                 mChangingConfigurations = copy.mChangingConfigurations;
                 mVPathRenderer = new VPathRenderer(copy.mVPathRenderer);
-                if (copy.mVPathRenderer.mFillPaint != null) {
-                    mVPathRenderer.mFillPaint = new Paint(copy.mVPathRenderer.mFillPaint);
-                }
-                if (copy.mVPathRenderer.mStrokePaint != null) {
-                    mVPathRenderer.mStrokePaint = new Paint(copy.mVPathRenderer.mStrokePaint);
-                }
+                mVPathRenderer.copyPaints(copy.mVPathRenderer);
                 mTint = copy.mTint;
                 mTintMode = copy.mTintMode;
                 mAutoMirrored = copy.mAutoMirrored;
+                mBitmapCacheMaxSize = copy.mBitmapCacheMaxSize;
             }
         }
 
         public void drawCachedBitmapWithRootAlpha(Canvas canvas, ColorFilter filter) {
             // The bitmap's size is the same as the bounds.
-            final Paint p = getPaint(filter);
-            canvas.drawBitmap(mCachedBitmap, 0, 0, p);
+            final Bitmap bitmap = mCachedBitmap.mBitmap;
+            final Paint p;
+            if (bitmap.getConfig() == Bitmap.Config.ALPHA_8) {
+                // The bitmap only holds the coverage of a monochrome tree, the
+                // color comes from the paint and goes through the color filter.
+                p = getPaint(filter, true);
+                p.setColor((mVPathRenderer.getRootAlpha() << 24) | mMaskColor);
+            } else {
+                p = getPaint(filter);
+            }
+            canvas.drawBitmap(bitmap, 0, 0, p);
         }
 
         public boolean hasTranslucentRoot() {
@@ -572,7 +748,11 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
          * @return null when there is no need for alpha paint.
          */
         public Paint getPaint(ColorFilter filter) {
-            if (!hasTranslucentRoot() && filter == null) {
+            return getPaint(filter, false);
+        }
+
+        private Paint getPaint(ColorFilter filter, boolean force) {
+            if (!force && !hasTranslucentRoot() && filter == null) {
                 return null;
             }
 
@@ -585,51 +765,159 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
             return mTempPaint;
         }
 
+        @Override
+        protected void finalize() throws Throwable {
+            try {
+                releaseCachedBitmaps();
+            } finally {
+                super.finalize();
+            }
+        }
+
         public void updateCachedBitmap(Rect bounds) {
-            mCachedBitmap.eraseColor(Color.TRANSPARENT);
-            Canvas tmpCanvas = new Canvas(mCachedBitmap);
+            final Bitmap bitmap = mCachedBitmap.mBitmap;
+            bitmap.eraseColor(Color.TRANSPARENT);
+            Canvas tmpCanvas = new Canvas(bitmap);
             mVPathRenderer.draw(tmpCanvas, bounds.width(), bounds.height(), null);
         }
 
-        public void createCachedBitmapIfNeeded(Rect bounds) {
-            if (mCachedBitmap == null || !canReuseBitmap(bounds.width(),
-                    bounds.height())) {
-                mCachedBitmap = Bitmap.createBitmap(bounds.width(), bounds.height(),
-                        Bitmap.Config.ARGB_8888);
-                mCacheDirty = true;
+        /**
+         * @param shareable Whether the bitmap can be shared with other drawables
+         *                  showing the same tree, which is only true as long as
+         *                  the tree doesn't change.
+         */
+        public void createCachedBitmapIfNeeded(Rect bounds, boolean shareable) {
+            mCachedBitmap = obtainCachedBitmap(bounds.width(), bounds.height(), shareable);
+        }
+
+        /**
+         * @return the cached bitmap for the given size, making it the most
+         * recently used one. It is allocated if needed but may not be drawn yet.
+         */
+        RasterCache.Entry obtainCachedBitmap(int width, int height, boolean shareable) {
+            if (mCacheDirty) {
+                // Nothing drawn from the previous content can be used anymore,
+                // give the tree a new identity in the RasterCache.
+                mVPathRenderer.mContentKey = new Object();
+                releaseCachedBitmaps();
+                mCacheDirty = false;
+            }
+
+            final Object content = shareable ? mVPathRenderer.mContentKey : null;
+            if (!mCachedBitmaps.isEmpty()
+                    && mCachedBitmaps.get(0).canReuseBitmap(content, width, height)) {
+                return mCachedBitmaps.get(0);
             }
 
+            // Look for an earlier rasterization at this size and make it the most
+            // recently used one.
+            for (int i = 1; i < mCachedBitmaps.size(); i++) {
+                final RasterCache.Entry cached = mCachedBitmaps.get(i);
+                if (cached.canReuseBitmap(content, width, height)) {
+                    mCachedBitmaps.remove(i);
+                    mCachedBitmaps.add(0, cached);
+                    return cached;
+                }
+            }
+
+            final RasterCache.Entry cached;
+            if (shareable) {
+                // A tree drawn with a single color only needs its coverage, which
+                // takes a quarter of the memory and can be tinted when drawn.
+                mMaskColor = mVPathRenderer.getMonochromeColor();
+                final Bitmap.Config config = mMaskColor != NOT_MONOCHROME
+                        ? Bitmap.Config.ALPHA_8 : Bitmap.Config.ARGB_8888;
+                cached = RasterCache.acquire(content, width, height, config);
+            } else {
+                cached = RasterCache.createPrivate(width, height);
+            }
+            mCachedBitmaps.add(0, cached);
+            mCachedBitmapsSize += cached.getByteCount();
+            trimCachedBitmaps();
+            return cached;
         }
 
-        public boolean canReuseBitmap(int width, int height) {
-            if (width == mCachedBitmap.getWidth()
-                    && height == mCachedBitmap.getHeight()) {
-                return true;
+        public void setBitmapCacheSize(int maxBytes) {
+            mBitmapCacheMaxSize = maxBytes;
+            trimCachedBitmaps();
+        }
+
+        private void trimCachedBitmaps() {
+            // Never evict the most recently used bitmap.
+            while (mCachedBitmapsSize > mBitmapCacheMaxSize && mCachedBitmaps.size() > 1) {
+                final RasterCache.Entry evicted = mCachedBitmaps.remove(mCachedBitmaps.size() - 1);
+                mCachedBitmapsSize -= evicted.getByteCount();
+                RasterCache.release(evicted);
+                if (evicted == mCachedBitmap) {
+                    mCachedBitmap = null;
+                }
             }
-            return false;
         }
 
-        public boolean canReuseCache() {
-            if (!mCacheDirty
-                    && mCachedThemeAttrs == mThemeAttrs
-                    && mCachedTint == mTint
-                    && mCachedTintMode == mTintMode
-                    && mCachedAutoMirrored == mAutoMirrored
-                    && mCachedRootAlpha == mVPathRenderer.getRootAlpha()) {
-                return true;
+        private void releaseCachedBitmaps() {
+            for (int i = 0; i < mCachedBitmaps.size(); i++) {
+                RasterCache.release(mCachedBitmaps.get(i));
+            }
+            mCachedBitmaps.clear();
+            mCachedBitmap = null;
+            mCachedBitmapsSize = 0;
+        }
+
+        /**
+         * Draw the tree into the shared cached bitmap, unless it already holds it.
+         * Tint, root alpha and mirroring are applied when drawing the bitmap, it
+         * only needs to be drawn once for a given tree and size.
+         */
+        public void updateCachedBitmapIfNeeded(Rect bounds) {
+            final RasterCache.Entry cached = mCachedBitmap;
+            if (cached.isDrawn()) {
+                return;
+            }
+            // A prewarm task may be drawing the same bitmap in the background.
+            synchronized (cached) {
+                if (!cached.isDrawn()) {
+                    updateCachedBitmap(bounds);
+                    cached.setDrawn();
+                }
             }
-            return false;
         }
 
-        public void updateCacheStates() {
-            // Use shallow copy here and shallow comparison in canReuseCache(),
-            // likely hit cache miss more, but practically not much difference.
-            mCachedThemeAttrs = mThemeAttrs;
-            mCachedTint = mTint;
-            mCachedTintMode = mTintMode;
-            mCachedRootAlpha = mVPathRenderer.getRootAlpha();
-            mCachedAutoMirrored = mAutoMirrored;
-            mCacheDirty = false;
+        /**
+         * Allocate the cached bitmap for the given size and draw it on the
+         * prewarm executor, with a copy of the tree so it doesn't race with
+         * draws on the calling thread. Must be called on the drawing thread,
+         * the cached bitmap list is not synchronized.
+         */
+        public Future<?> prewarm(int width, int height) {
+            final RasterCache.Entry cached = obtainCachedBitmap(width, height, true);
+            if (cached.isDrawn()) {
+                return completedFuture();
+            }
+            // The draw caches of the nodes are not thread safe, draw a tree
+            // that isn't shared with anyone.
+            final VPathRenderer renderer = new VPathRenderer(mVPathRenderer);
+            renderer.ownTree();
+            // The task holds its own reference, so the bitmap can't be evicted
+            // and pooled for someone else if this state drops it meanwhile.
+            RasterCache.retain(cached);
+            return getPrewarmExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        synchronized (cached) {
+                            if (!cached.isDrawn()) {
+                                final Bitmap bitmap = cached.mBitmap;
+                                bitmap.eraseColor(Color.TRANSPARENT);
+                                renderer.draw(new Canvas(bitmap), bitmap.getWidth(),
+                                        bitmap.getHeight(), null);
+                                cached.setDrawn();
+                            }
+                        }
+                    } finally {
+                        RasterCache.release(cached);
+                    }
+                }
+            });
         }
 
         @Override
@@ -679,18 +967,61 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
         // Variables that only used temporarily inside the draw() call, so there
         // is no need for deep copying.
         private final Path mPath;
-        private final Path mRenderPath;
+        private Path mRenderPath;
         private static final Matrix IDENTITY_MATRIX = new Matrix();
-        private final Matrix mFinalPathMatrix = new Matrix();
 
+        // The paints and the state last applied to them. Consecutive paths
+        // often share their style, only what differs is set again.
         private Paint mStrokePaint;
+        private int mStrokePaintColor;
+        private ColorFilter mStrokePaintFilter;
+        private float mStrokePaintWidth;
+        private float mStrokePaintMiter;
+        private Paint.Join mStrokePaintJoin;
+        private Paint.Cap mStrokePaintCap;
         private Paint mFillPaint;
-        private PathMeasure mPathMeasure;
+        private int mFillPaintColor;
+        private ColorFilter mFillPaintFilter;
+
+        // Fills waiting to be drawn with a single drawPath() call. Consecutive
+        // fills of the same color can be merged as long as they don't overlap,
+        // overlapping parts could cancel out or be blended twice otherwise.
+        // Pending while mFillBatchCanvas is set.
+        private Path mFillBatchPath;
+        private final RectF mFillBatchBounds = new RectF();
+        private final RectF mFillPathBounds = new RectF();
+        private Canvas mFillBatchCanvas;
+        private ColorFilter mFillBatchFilter;
+        private int mFillBatchColor;
+
+        // Scratch geometry of paths drawn as simple shapes.
+        private final RectF mShapeRect = new RectF();
+        private final float[] mShapePoints = new float[4];
+
+        // Bitmap layers holding the runs of paths no animator can reach, in draw
+        // order. Only used once setAnimatedTargets() split the tree.
+        private int mStaticLayerCount;
+        // The static layer of each path of the display list, or -1 for the
+        // paths drawn directly every frame.
+        private int[] mPathStaticLayers;
+        private Bitmap[] mStaticLayers;
+        private boolean mStaticLayersDirty;
+        private Paint mStaticLayerPaint;
+        // Only set while the static layers are being rasterized.
+        private Canvas[] mStaticLayerCanvases;
+        // The next layer to composite in the frame being drawn.
+        private int mNextStaticLayer;
+
+        // The tree flattened in draw order, rebuilt once its nodes change. The
+        // lists never change once compiled, so copies share them.
+        private DisplayList mDisplayList;
+        // Which groups' stacked matrices changed in the frame being drawn.
+        private boolean[] mMatrixChanged;
 
         /////////////////////////////////////////////////////
         // Variables below need to be copied (deep copy if applicable) for mutation.
         private int mChangingConfigurations;
-        private final VGroup mRootGroup;
+        private VGroup mRootGroup;
         float mBaseWidth = 0;
         float mBaseHeight = 0;
         float mViewportWidth = 0;
@@ -700,6 +1031,10 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
 
         final ArrayMap<String, Object> mVGTargetsMap = new ArrayMap<String, Object>();
 
+        // Identifies the content of the tree in the RasterCache. Copies share it
+        // until their tree is changed.
+        Object mContentKey = new Object();
+
         public VPathRenderer() {
             mRootGroup = new VGroup();
             mPath = new Path();
@@ -725,8 +1060,18 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
             return getRootAlpha() / 255.0f;
         }
 
+        // Nodes of the tree are shared between a renderer and its copies, and
+        // only copied once they are about to be modified, see getTarget(). A
+        // node can be modified by the renderer whose mOwner matches the node's.
+        // The renderer that inflated the tree has a null owner, like its nodes.
+        private Object mOwner;
+
         public VPathRenderer(VPathRenderer copy) {
-            mRootGroup = new VGroup(copy.mRootGroup, mVGTargetsMap);
+            // Share the whole tree, the copy has to take ownership of the nodes
+            // it modifies first.
+            mRootGroup = copy.mRootGroup;
+            mOwner = new Object();
+            mVGTargetsMap.putAll(copy.mVGTargetsMap);
             mPath = new Path(copy.mPath);
             mRenderPath = new Path(copy.mRenderPath);
             mBaseWidth = copy.mBaseWidth;
@@ -736,6 +1081,8 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
             mChangingConfigurations = copy.mChangingConfigurations;
             mRootAlpha = copy.mRootAlpha;
             mRootName = copy.mRootName;
+            mContentKey = copy.mContentKey;
+            mDisplayList = copy.mDisplayList;
             if (copy.mRootName != null) {
                 mVGTargetsMap.put(copy.mRootName, this);
             }
@@ -771,7 +1118,329 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
 
         public void applyTheme(Theme t) {
             // Apply theme to every path of the tree.
+            ownTree();
             recursiveApplyTheme(mRootGroup, t);
+            mStaticLayersDirty = true;
+        }
+
+        /**
+         * @return the group, path or renderer with the given name, which the
+         * caller may modify. Shared nodes are copied first, along with the
+         * groups leading to them.
+         */
+        public Object getTarget(String name) {
+            final Object target = mVGTargetsMap.get(name);
+            if (target == null || target == this) {
+                return target;
+            }
+
+            Object node = target;
+            if (!isOwned(target)) {
+                final ArrayList<Object> nodes = new ArrayList<Object>();
+                findNode(mRootGroup, target, nodes);
+                nodes.add(0, mRootGroup);
+
+                // Copy from the root down, so each copy can be linked to its parent.
+                VGroup parent = null;
+                for (int i = 0; i < nodes.size(); i++) {
+                    node = nodes.get(i);
+                    if (!isOwned(node)) {
+                        final Object nodeCopy = copyNode(node);
+                        if (parent == null) {
+                            mRootGroup = (VGroup) nodeCopy;
+                        } else {
+                            parent.mChildren.set(parent.mChildren.indexOf(node), nodeCopy);
+                        }
+                        node = nodeCopy;
+                    }
+                    if (node instanceof VGroup) {
+                        parent = (VGroup) node;
+                    }
+                }
+            }
+
+            if (node instanceof VGroup) {
+                // The groups below cache matrices depending on this group's,
+                // which will differ from the original's. This holds as well
+                // when the group was already owned, having been copied as the
+                // ancestor of an earlier target.
+                ownChildren((VGroup) node, false);
+            }
+            return node;
+        }
+
+        /**
+         * Take ownership of every node of the tree.
+         */
+        void ownTree() {
+            if (!isOwned(mRootGroup)) {
+                mRootGroup = (VGroup) copyNode(mRootGroup);
+            }
+            ownChildren(mRootGroup, true);
+        }
+
+        private void ownChildren(VGroup currentGroup, boolean ownPaths) {
+            final ArrayList<Object> children = currentGroup.mChildren;
+            for (int i = 0; i < children.size(); i++) {
+                Object child = children.get(i);
+                if (!isOwned(child) && (ownPaths || child instanceof VGroup)) {
+                    child = copyNode(child);
+                    children.set(i, child);
+                }
+                if (child instanceof VGroup) {
+                    ownChildren((VGroup) child, ownPaths);
+                }
+            }
+        }
+
+        /**
+         * Collect the groups between the root, excluded, and the target, included.
+         */
+        private boolean findNode(VGroup currentGroup, Object target, ArrayList<Object> nodes) {
+            if (currentGroup == target) {
+                return true;
+            }
+            final ArrayList<Object> children = currentGroup.mChildren;
+            for (int i = 0; i < children.size(); i++) {
+                Object child = children.get(i);
+                if (child == target || (child instanceof VGroup
+                        && findNode((VGroup) child, target, nodes))) {
+                    nodes.add(0, child);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isOwned(Object node) {
+            if (node instanceof VGroup) {
+                return ((VGroup) node).mOwner == mOwner;
+            }
+            return ((VPath) node).mOwner == mOwner;
+        }
+
+        private Object copyNode(Object node) {
+            final String name;
+            final Object nodeCopy;
+            if (node instanceof VGroup) {
+                final VGroup groupCopy = new VGroup((VGroup) node);
+                groupCopy.mOwner = mOwner;
+                name = groupCopy.mGroupName;
+                nodeCopy = groupCopy;
+            } else {
+                final VPath pathCopy;
+                if (node instanceof VFullPath) {
+                    pathCopy = new VFullPath((VFullPath) node);
+                } else if (node instanceof VClipPath) {
+                    pathCopy = new VClipPath((VClipPath) node);
+                } else {
+                    throw new IllegalStateException("Unknown object in the tree!");
+                }
+                pathCopy.mOwner = mOwner;
+                name = pathCopy.mPathName;
+                nodeCopy = pathCopy;
+            }
+            if (name != null) {
+                mVGTargetsMap.put(name, nodeCopy);
+            }
+            // The copy replaces the node in the tree.
+            mDisplayList = null;
+            return nodeCopy;
+        }
+
+        /**
+         * Remove the groups no animator or theme can reach, moving their
+         * children up to the parent group. A group that isn't an identity
+         * transform is only removed when its transform can be baked into the
+         * coordinates of all its children, which must then be paths no animator
+         * or theme can reach either. Drawing then has fewer matrices to
+         * maintain. Must be called at inflate time, before the tree is shared.
+         */
+        void foldStaticGroups(VGroup currentGroup) {
+            final ArrayList<Object> children = currentGroup.mChildren;
+            for (int i = 0; i < children.size(); i++) {
+                Object child = children.get(i);
+                if (!(child instanceof VGroup)) {
+                    continue;
+                }
+                final VGroup childGroup = (VGroup) child;
+                // Fold bottom up, so a group's children are already merged.
+                foldStaticGroups(childGroup);
+                if (!canFoldGroup(childGroup)) {
+                    continue;
+                }
+                final Matrix matrix = childGroup.getLocalMatrix();
+                final ArrayList<Object> grandChildren = childGroup.mChildren;
+                if (!matrix.isIdentity()) {
+                    for (int j = 0; j < grandChildren.size(); j++) {
+                        ((VPath) grandChildren.get(j)).transformPathData(matrix);
+                    }
+                }
+                children.remove(i);
+                children.addAll(i, grandChildren);
+                // Continue after the moved children, they are already folded.
+                i += grandChildren.size() - 1;
+            }
+        }
+
+        private static boolean canFoldGroup(VGroup group) {
+            if (group.getGroupName() != null || group.canApplyTheme()) {
+                return false;
+            }
+            if (group.getLocalMatrix().isIdentity()) {
+                return true;
+            }
+            final ArrayList<Object> children = group.mChildren;
+            for (int i = 0; i < children.size(); i++) {
+                Object child = children.get(i);
+                if (!(child instanceof VPath) || !((VPath) child).canTransformPathData()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Split the tree into the paths the animators can change and runs of
+         * static paths between them. A path is animated if it or one of its
+         * parent groups is a target. Each run of consecutive static paths in
+         * draw order is rasterized once into its own bitmap layer, then every
+         * frame composites the layers and draws only the animated paths.
+         *
+         * @param targets The animated groups and paths, or null to draw the
+         *                whole tree every frame.
+         */
+        public void setAnimatedTargets(ArrayList<Object> targets) {
+            releaseStaticLayers();
+            mStaticLayersDirty = true;
+            mPathStaticLayers = null;
+            mStaticLayerCount = 0;
+            if (targets == null) {
+                return;
+            }
+
+            final DisplayList list = getDisplayList();
+            final VGroup[] groups = list.mGroups;
+            final int[] groupParents = list.mGroupParents;
+            final VPath[] paths = list.mPaths;
+            final int[] pathGroups = list.mPathGroups;
+            final boolean[] clipPaths = list.mClipPaths;
+            for (int i = 0; i < paths.length; i++) {
+                if (clipPaths[i]) {
+                    // Clip paths replace the canvas clip for everything drawn
+                    // after them, which can't be expressed with separately
+                    // drawn layers.
+                    return;
+                }
+            }
+
+            // Parents come first in the list, so a group is animated once its
+            // parent's state is known.
+            final boolean[] animatedGroups = new boolean[groups.length];
+            for (int i = 0; i < groups.length; i++) {
+                final int parent = groupParents[i];
+                animatedGroups[i] = targets.contains(groups[i])
+                        || (parent >= 0 && animatedGroups[parent]);
+            }
+
+            // The layers are indexed like the display list's paths rather than
+            // stored on the paths, which other renderers may share.
+            final int[] pathLayers = new int[paths.length];
+            int layer = -1;
+            int layerCount = 0;
+            for (int i = 0; i < paths.length; i++) {
+                if (animatedGroups[pathGroups[i]] || targets.contains(paths[i])) {
+                    layer = -1;
+                } else if (layer == -1) {
+                    layer = layerCount++;
+                }
+                pathLayers[i] = layer;
+            }
+            if (layerCount == 0 || layerCount > MAX_STATIC_LAYERS) {
+                // Too many layers would cost more memory than redrawing saves.
+                return;
+            }
+            mPathStaticLayers = pathLayers;
+            mStaticLayerCount = layerCount;
+        }
+
+        /**
+         * @return the RGB color shared by every fill and stroke of the tree, or
+         * NOT_MONOCHROME if they don't all use the same one.
+         */
+        public int getMonochromeColor() {
+            final int color = getMonochromeColor(mRootGroup, NO_COLOR);
+            // A tree without any color draws nothing, any color will do.
+            return color == NO_COLOR ? 0 : color;
+        }
+
+        private int getMonochromeColor(VGroup currentGroup, int color) {
+            final ArrayList<Object> children = currentGroup.mChildren;
+            for (int i = 0; i < children.size() && color != NOT_MONOCHROME; i++) {
+                Object child = children.get(i);
+                if (child instanceof VGroup) {
+                    color = getMonochromeColor((VGroup) child, color);
+                } else if (child instanceof VFullPath) {
+                    final VFullPath fullPath = (VFullPath) child;
+                    if (fullPath.mFillColor != Color.TRANSPARENT) {
+                        color = mergeMonochromeColor(color, fullPath.mFillColor);
+                    }
+                    if (fullPath.mStrokeColor != Color.TRANSPARENT) {
+                        color = mergeMonochromeColor(color, fullPath.mStrokeColor);
+                    }
+                }
+            }
+            return color;
+        }
+
+        private static int mergeMonochromeColor(int color, int pathColor) {
+            // Alpha is kept in the mask, only the RGB part has to match.
+            final int rgb = pathColor & 0xFFFFFF;
+            return color == NO_COLOR || color == rgb ? rgb : NOT_MONOCHROME;
+        }
+
+        private void updateStaticLayersIfNeeded(int w, int h) {
+            if (!mStaticLayersDirty && mStaticLayers != null
+                    && mStaticLayers[0].getWidth() == w && mStaticLayers[0].getHeight() == h) {
+                return;
+            }
+            if (mStaticLayers == null || mStaticLayers[0].getWidth() != w
+                    || mStaticLayers[0].getHeight() != h) {
+                releaseStaticLayers();
+                mStaticLayers = new Bitmap[mStaticLayerCount];
+                for (int i = 0; i < mStaticLayerCount; i++) {
+                    mStaticLayers[i] = BitmapPool.obtain(w, h, Bitmap.Config.ARGB_8888);
+                }
+            } else {
+                for (int i = 0; i < mStaticLayerCount; i++) {
+                    mStaticLayers[i].eraseColor(Color.TRANSPARENT);
+                }
+            }
+            mStaticLayerCanvases = new Canvas[mStaticLayerCount];
+            for (int i = 0; i < mStaticLayerCount; i++) {
+                mStaticLayerCanvases[i] = new Canvas(mStaticLayers[i]);
+            }
+            // Color filters are applied when compositing the layers.
+            drawDisplayList(null, w, h, null);
+            mStaticLayerCanvases = null;
+            mStaticLayersDirty = false;
+        }
+
+        private void releaseStaticLayers() {
+            if (mStaticLayers != null) {
+                for (int i = 0; i < mStaticLayers.length; i++) {
+                    BitmapPool.release(mStaticLayers[i]);
+                }
+                mStaticLayers = null;
+            }
+        }
+
+        private Paint getStaticLayerPaint(ColorFilter filter) {
+            if (mStaticLayerPaint == null) {
+                mStaticLayerPaint = new Paint();
+            }
+            mStaticLayerPaint.setColorFilter(filter);
+            return mStaticLayerPaint;
         }
 
         private void recursiveApplyTheme(VGroup currentGroup, Theme t) {
@@ -795,120 +1464,401 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
             }
         }
 
-        private void drawGroupTree(VGroup currentGroup, Matrix currentMatrix,
-                                   Canvas canvas, int w, int h, ColorFilter filter) {
-            // Calculate current group's matrix by preConcat the parent's and
-            // and the current one on the top of the stack.
-            // Basically the Mfinal = Mviewport * M0 * M1 * M2;
-            // Mi the local matrix at level i of the group tree.
-            currentGroup.mStackedMatrix.set(currentMatrix);
+        private DisplayList getDisplayList() {
+            if (mDisplayList == null) {
+                mDisplayList = new DisplayList(mRootGroup);
+            }
+            return mDisplayList;
+        }
 
-            currentGroup.mStackedMatrix.preConcat(currentGroup.mLocalMatrix);
+        private void drawDisplayList(Canvas canvas, int w, int h, ColorFilter filter) {
+            final DisplayList list = getDisplayList();
+            final VGroup[] groups = list.mGroups;
+            final int[] groupParents = list.mGroupParents;
+            if (mMatrixChanged == null || mMatrixChanged.length < groups.length) {
+                mMatrixChanged = new boolean[groups.length];
+            }
+            final boolean[] matrixChanged = mMatrixChanged;
 
-            // Draw the group tree in the same order as the XML file.
-            for (int i = 0; i < currentGroup.mChildren.size(); i++) {
-                Object child = currentGroup.mChildren.get(i);
-                if (child instanceof VGroup) {
-                    VGroup childGroup = (VGroup) child;
-                    drawGroupTree(childGroup, currentGroup.mStackedMatrix,
-                            canvas, w, h, filter);
-                } else if (child instanceof VPath) {
-                    VPath childPath = (VPath) child;
-                    drawPath(currentGroup, childPath, canvas, w, h, filter);
+            // Calculate each group's matrix by preConcat the parent's and the
+            // group's own, parents come first in the list.
+            // Basically the Mfinal = Mviewport * M0 * M1 * M2;
+            // Mi the local matrix at level i of the group tree.
+            // The stacked matrix is only recomputed when this group or one of
+            // its parents changed since the previous draw.
+            for (int i = 0; i < groups.length; i++) {
+                final int parent = groupParents[i];
+                if (parent < 0) {
+                    matrixChanged[i] = groups[i].updateStackedMatrix(IDENTITY_MATRIX, false);
+                } else {
+                    matrixChanged[i] = groups[i].updateStackedMatrix(
+                            groups[parent].mStackedMatrix, matrixChanged[parent]);
                 }
             }
+
+            // Draw the paths in the same order as the XML file.
+            final VPath[] paths = list.mPaths;
+            final int[] pathGroups = list.mPathGroups;
+            final boolean[] clipPaths = list.mClipPaths;
+            final int[] pathLayers = mPathStaticLayers;
+            for (int i = 0; i < paths.length; i++) {
+                drawPath(groups[pathGroups[i]], paths[i], clipPaths[i],
+                        pathLayers != null ? pathLayers[i] : -1, canvas, w, h, filter);
+            }
+            flushFillBatch();
         }
 
         public void draw(Canvas canvas, int w, int h, ColorFilter filter) {
-            // Travese the tree in pre-order to draw.
-            drawGroupTree(mRootGroup, IDENTITY_MATRIX, canvas, w, h, filter);
+            if (mStaticLayerCount > 0) {
+                updateStaticLayersIfNeeded(w, h);
+                mNextStaticLayer = 0;
+            }
+            drawDisplayList(canvas, w, h, filter);
         }
 
-        private void drawPath(VGroup vGroup, VPath vPath, Canvas canvas, int w, int h,
-                              ColorFilter filter) {
+        private void drawPath(VGroup vGroup, VPath vPath, boolean isClipPath, int staticLayer,
+                              Canvas canvas, int w, int h, ColorFilter filter) {
+            if (staticLayer >= 0) {
+                if (mStaticLayerCanvases != null) {
+                    // Rasterizing the static layers, draw the path into its layer.
+                    canvas = mStaticLayerCanvases[staticLayer];
+                } else {
+                    // The first path of each static run composites the whole run.
+                    if (staticLayer >= mNextStaticLayer) {
+                        flushFillBatch();
+                        canvas.drawBitmap(mStaticLayers[staticLayer], 0, 0,
+                                getStaticLayerPaint(filter));
+                        mNextStaticLayer = staticLayer + 1;
+                    }
+                    return;
+                }
+            } else if (mStaticLayerCanvases != null) {
+                // Animated paths are not part of any layer.
+                return;
+            }
+
             final float scaleX = w / mViewportWidth;
             final float scaleY = h / mViewportHeight;
             final float minScale = Math.min(scaleX, scaleY);
 
-            mFinalPathMatrix.set(vGroup.mStackedMatrix);
-            mFinalPathMatrix.postScale(scaleX, scaleY);
+            final Matrix finalPathMatrix = vGroup.getFinalMatrix(scaleX, scaleY);
+
+            // Arcs only need to be accurate to a fraction of a pixel of the
+            // destination, including the scale of the groups above the path.
+            final float tolerance = vGroup.mFinalPathTolerance;
+
+            if (isClipPath) {
+                // Fills before the clip are drawn with the previous one.
+                flushFillBatch();
+                if (vPath.getShape() == PathParser.SHAPE_RECT
+                        && finalPathMatrix.rectStaysRect()) {
+                    final RectF rect = mShapeRect;
+                    rect.set(vPath.mShapeBounds);
+                    finalPathMatrix.mapRect(rect);
+                    canvas.clipRect(rect, Region.Op.REPLACE);
+                } else {
+                    canvas.clipPath(((VClipPath) vPath).getTransformedPath(vGroup,
+                            finalPathMatrix, tolerance), Region.Op.REPLACE);
+                }
+                return;
+            }
+
+            final VFullPath fullPath = (VFullPath) vPath;
 
-            vPath.toPath(mPath);
-            final Path path = mPath;
+            // Rectangles, ovals and lines the matrix keeps as such are drawn
+            // with the dedicated canvas calls, without building any Path.
+            final int shape = fullPath.getShape();
+            if (shape != PathParser.SHAPE_PATH
+                    && fullPath.mTrimPathStart == 0.0f && fullPath.mTrimPathEnd == 1.0f
+                    && (shape == PathParser.SHAPE_LINE || finalPathMatrix.rectStaysRect())) {
+                drawShape(fullPath, shape, finalPathMatrix, canvas, minScale, filter);
+                return;
+            }
+
+            // The VPath only rebuilds its Path when its data changed since the
+            // last draw.
+            Path path = fullPath.getPath(tolerance);
 
             mRenderPath.reset();
 
-            if (vPath.isClipPath()) {
-                mRenderPath.addPath(path, mFinalPathMatrix);
-                canvas.clipPath(mRenderPath, Region.Op.REPLACE);
-            } else {
-                VFullPath fullPath = (VFullPath) vPath;
-                if (fullPath.mTrimPathStart != 0.0f || fullPath.mTrimPathEnd != 1.0f) {
-                    float start = (fullPath.mTrimPathStart + fullPath.mTrimPathOffset) % 1.0f;
-                    float end = (fullPath.mTrimPathEnd + fullPath.mTrimPathOffset) % 1.0f;
+            if (fullPath.mTrimPathStart != 0.0f || fullPath.mTrimPathEnd != 1.0f) {
+                float start = (fullPath.mTrimPathStart + fullPath.mTrimPathOffset) % 1.0f;
+                float end = (fullPath.mTrimPathEnd + fullPath.mTrimPathOffset) % 1.0f;
+
+                // The path is only measured again when its data changed,
+                // trim animations just extract segments.
+                final PathMeasure pathMeasure = fullPath.getPathMeasure(path);
+                float len = fullPath.mPathLength;
+                start = start * len;
+                end = end * len;
+                // Extract the trimmed segments into the scratch path, the
+                // VPath's own Path stays intact for the next frame.
+                path = mPath;
+                path.reset();
+                if (start > end) {
+                    pathMeasure.getSegment(start, len, path, true);
+                    pathMeasure.getSegment(0f, end, path, true);
+                } else {
+                    pathMeasure.getSegment(start, end, path, true);
+                }
+                path.rLineTo(0, 0); // fix bug in measure
+            }
+            mRenderPath.addPath(path, finalPathMatrix);
 
-                    if (mPathMeasure == null) {
-                        mPathMeasure = new PathMeasure();
-                    }
-                    mPathMeasure.setPath(mPath, false);
-
-                    float len = mPathMeasure.getLength();
-                    start = start * len;
-                    end = end * len;
-                    path.reset();
-                    if (start > end) {
-                        mPathMeasure.getSegment(start, len, path, true);
-                        mPathMeasure.getSegment(0f, end, path, true);
-                    } else {
-                        mPathMeasure.getSegment(start, end, path, true);
-                    }
-                    path.rLineTo(0, 0); // fix bug in measure
+            // batchFill() may hand the render path over to the batch.
+            final Path renderPath = mRenderPath;
+            if (fullPath.mFillColor != Color.TRANSPARENT) {
+                batchFill(canvas, applyAlpha(fullPath.mFillColor, fullPath.mFillAlpha),
+                        filter);
+            }
+
+            if (fullPath.mStrokeColor != Color.TRANSPARENT) {
+                // Strokes are drawn over the fills before them.
+                flushFillBatch();
+                final Paint strokePaint = getStrokePaint(fullPath,
+                        applyAlpha(fullPath.mStrokeColor, fullPath.mStrokeAlpha),
+                        fullPath.mStrokeWidth * minScale, filter);
+                canvas.drawPath(renderPath, strokePaint);
+            }
+        }
+
+        private void drawShape(VFullPath fullPath, int shape, Matrix matrix, Canvas canvas,
+                               float minScale, ColorFilter filter) {
+            flushFillBatch();
+            final RectF shapeBounds = fullPath.mShapeBounds;
+            if (shape == PathParser.SHAPE_LINE) {
+                // A line has no area to fill.
+                if (fullPath.mStrokeColor != Color.TRANSPARENT) {
+                    final float[] points = mShapePoints;
+                    points[0] = shapeBounds.left;
+                    points[1] = shapeBounds.top;
+                    points[2] = shapeBounds.right;
+                    points[3] = shapeBounds.bottom;
+                    matrix.mapPoints(points);
+                    canvas.drawLine(points[0], points[1], points[2], points[3],
+                            getStrokePaint(fullPath,
+                                    applyAlpha(fullPath.mStrokeColor, fullPath.mStrokeAlpha),
+                                    fullPath.mStrokeWidth * minScale, filter));
                 }
-                mRenderPath.addPath(path, mFinalPathMatrix);
+                return;
+            }
 
-                if (fullPath.mFillColor != Color.TRANSPARENT) {
-                    if (mFillPaint == null) {
-                        mFillPaint = new Paint();
-                        mFillPaint.setStyle(Paint.Style.FILL);
-                        mFillPaint.setAntiAlias(true);
-                    }
+            final RectF rect = mShapeRect;
+            rect.set(shapeBounds);
+            matrix.mapRect(rect);
+            if (fullPath.mFillColor != Color.TRANSPARENT) {
+                final Paint fillPaint = getFillPaint(
+                        applyAlpha(fullPath.mFillColor, fullPath.mFillAlpha), filter);
+                if (shape == PathParser.SHAPE_RECT) {
+                    canvas.drawRect(rect, fillPaint);
+                } else {
+                    canvas.drawOval(rect, fillPaint);
+                }
+            }
+            if (fullPath.mStrokeColor != Color.TRANSPARENT) {
+                final Paint strokePaint = getStrokePaint(fullPath,
+                        applyAlpha(fullPath.mStrokeColor, fullPath.mStrokeAlpha),
+                        fullPath.mStrokeWidth * minScale, filter);
+                if (shape == PathParser.SHAPE_RECT) {
+                    canvas.drawRect(rect, strokePaint);
+                } else {
+                    canvas.drawOval(rect, strokePaint);
+                }
+            }
+        }
 
-                    final Paint fillPaint = mFillPaint;
-                    fillPaint.setColor(applyAlpha(fullPath.mFillColor, fullPath.mFillAlpha));
-                    fillPaint.setColorFilter(filter);
-                    canvas.drawPath(mRenderPath, fillPaint);
+        /**
+         * Fill mRenderPath, merging it with the pending fills when possible.
+         */
+        private void batchFill(Canvas canvas, int color, ColorFilter filter) {
+            mRenderPath.computeBounds(mFillPathBounds, false);
+            if (mFillBatchCanvas != null) {
+                if (canvas == mFillBatchCanvas && color == mFillBatchColor
+                        && filter == mFillBatchFilter
+                        && !RectF.intersects(mFillBatchBounds, mFillPathBounds)) {
+                    mFillBatchPath.addPath(mRenderPath);
+                    mFillBatchBounds.union(mFillPathBounds);
+                    return;
                 }
+                flushFillBatch();
+            }
+            // Start a new batch with the render path itself, so a fill that
+            // can't be merged is never copied. The previous batch path becomes
+            // the render path, which is reset before each use.
+            final Path batchPath = mRenderPath;
+            mRenderPath = mFillBatchPath != null ? mFillBatchPath : new Path();
+            mFillBatchPath = batchPath;
+            mFillBatchBounds.set(mFillPathBounds);
+            mFillBatchCanvas = canvas;
+            mFillBatchFilter = filter;
+            mFillBatchColor = color;
+        }
+
+        private void flushFillBatch() {
+            if (mFillBatchCanvas == null) {
+                return;
+            }
+            mFillBatchCanvas.drawPath(mFillBatchPath,
+                    getFillPaint(mFillBatchColor, mFillBatchFilter));
+            mFillBatchCanvas = null;
+            mFillBatchFilter = null;
+        }
 
-                if (fullPath.mStrokeColor != Color.TRANSPARENT) {
-                    if (mStrokePaint == null) {
-                        mStrokePaint = new Paint();
-                        mStrokePaint.setStyle(Paint.Style.STROKE);
-                        mStrokePaint.setAntiAlias(true);
-                    }
+        /**
+         * Copy the paints of another renderer along with the state remembered
+         * for them, which must always describe what the paints hold.
+         */
+        void copyPaints(VPathRenderer source) {
+            if (source.mFillPaint != null) {
+                mFillPaint = new Paint(source.mFillPaint);
+                mFillPaintColor = source.mFillPaintColor;
+                mFillPaintFilter = source.mFillPaintFilter;
+            }
+            if (source.mStrokePaint != null) {
+                mStrokePaint = new Paint(source.mStrokePaint);
+                mStrokePaintColor = source.mStrokePaintColor;
+                mStrokePaintFilter = source.mStrokePaintFilter;
+                mStrokePaintWidth = source.mStrokePaintWidth;
+                mStrokePaintMiter = source.mStrokePaintMiter;
+                mStrokePaintJoin = source.mStrokePaintJoin;
+                mStrokePaintCap = source.mStrokePaintCap;
+            }
+        }
 
-                    final Paint strokePaint = mStrokePaint;
-                    if (fullPath.mStrokeLineJoin != null) {
-                        strokePaint.setStrokeJoin(fullPath.mStrokeLineJoin);
-                    }
+        private Paint getFillPaint(int color, ColorFilter filter) {
+            if (mFillPaint == null) {
+                mFillPaint = new Paint();
+                mFillPaint.setStyle(Paint.Style.FILL);
+                mFillPaint.setAntiAlias(true);
+                mFillPaint.setColor(color);
+                mFillPaint.setColorFilter(filter);
+            } else {
+                if (color != mFillPaintColor) {
+                    mFillPaint.setColor(color);
+                }
+                if (filter != mFillPaintFilter) {
+                    mFillPaint.setColorFilter(filter);
+                }
+            }
+            mFillPaintColor = color;
+            mFillPaintFilter = filter;
+            return mFillPaint;
+        }
+
+        private Paint getStrokePaint(VFullPath fullPath, int color, float width,
+                                     ColorFilter filter) {
+            final boolean created = mStrokePaint == null;
+            if (created) {
+                mStrokePaint = new Paint();
+                mStrokePaint.setStyle(Paint.Style.STROKE);
+                mStrokePaint.setAntiAlias(true);
+            }
 
-                    if (fullPath.mStrokeLineCap != null) {
-                        strokePaint.setStrokeCap(fullPath.mStrokeLineCap);
-                    }
+            final Paint strokePaint = mStrokePaint;
+            // A path without join or cap keeps the previous path's.
+            final Paint.Join join = fullPath.mStrokeLineJoin;
+            if (join != null && (created || join != mStrokePaintJoin)) {
+                strokePaint.setStrokeJoin(join);
+                mStrokePaintJoin = join;
+            }
+
+            final Paint.Cap cap = fullPath.mStrokeLineCap;
+            if (cap != null && (created || cap != mStrokePaintCap)) {
+                strokePaint.setStrokeCap(cap);
+                mStrokePaintCap = cap;
+            }
 
-                    strokePaint.setStrokeMiter(fullPath.mStrokeMiterlimit);
-                    strokePaint.setColor(applyAlpha(fullPath.mStrokeColor, fullPath.mStrokeAlpha));
-                    strokePaint.setColorFilter(filter);
-                    strokePaint.setStrokeWidth(fullPath.mStrokeWidth * minScale);
-                    canvas.drawPath(mRenderPath, strokePaint);
+            if (created || fullPath.mStrokeMiterlimit != mStrokePaintMiter) {
+                strokePaint.setStrokeMiter(fullPath.mStrokeMiterlimit);
+                mStrokePaintMiter = fullPath.mStrokeMiterlimit;
+            }
+            if (created || color != mStrokePaintColor) {
+                strokePaint.setColor(color);
+                mStrokePaintColor = color;
+            }
+            if (created || filter != mStrokePaintFilter) {
+                strokePaint.setColorFilter(filter);
+                mStrokePaintFilter = filter;
+            }
+            if (created || width != mStrokePaintWidth) {
+                strokePaint.setStrokeWidth(width);
+                mStrokePaintWidth = width;
+            }
+            return strokePaint;
+        }
+    }
+
+    /**
+     * The group tree flattened for drawing. Groups are listed in pre-order,
+     * each with the index of its parent, and paths in draw order, each with the
+     * index of its group, so drawing is two loops over arrays instead of a
+     * recursive walk testing the type of every child. The nodes stay the
+     * objects animators modify, the list only references them.
+     */
+    private static class DisplayList {
+        final VGroup[] mGroups;
+        final int[] mGroupParents;
+        final VPath[] mPaths;
+        final int[] mPathGroups;
+        final boolean[] mClipPaths;
+
+        DisplayList(VGroup root) {
+            final ArrayList<VGroup> groups = new ArrayList<VGroup>();
+            final ArrayList<Integer> groupParents = new ArrayList<Integer>();
+            final ArrayList<VPath> paths = new ArrayList<VPath>();
+            final ArrayList<Integer> pathGroups = new ArrayList<Integer>();
+            compile(root, -1, groups, groupParents, paths, pathGroups);
+
+            mGroups = groups.toArray(new VGroup[groups.size()]);
+            mGroupParents = new int[groups.size()];
+            for (int i = 0; i < mGroupParents.length; i++) {
+                mGroupParents[i] = groupParents.get(i);
+            }
+            mPaths = paths.toArray(new VPath[paths.size()]);
+            mPathGroups = new int[paths.size()];
+            mClipPaths = new boolean[paths.size()];
+            for (int i = 0; i < mPaths.length; i++) {
+                mPathGroups[i] = pathGroups.get(i);
+                mClipPaths[i] = mPaths[i].isClipPath();
+            }
+        }
+
+        private static void compile(VGroup group, int parent, ArrayList<VGroup> groups,
+                                    ArrayList<Integer> groupParents, ArrayList<VPath> paths,
+                                    ArrayList<Integer> pathGroups) {
+            final int index = groups.size();
+            groups.add(group);
+            groupParents.add(parent);
+            final ArrayList<Object> children = group.mChildren;
+            for (int i = 0; i < children.size(); i++) {
+                Object child = children.get(i);
+                if (child instanceof VGroup) {
+                    compile((VGroup) child, index, groups, groupParents, paths, pathGroups);
+                } else if (child instanceof VPath) {
+                    paths.add((VPath) child);
+                    pathGroups.add(index);
                 }
             }
         }
     }
 
     private static class VGroup {
-        // mStackedMatrix is only used temporarily when drawing, it combines all
-        // the parents' local matrices with the current one.
+        // mStackedMatrix is only updated when drawing, it combines all the
+        // parents' local matrices with the current one. It is kept between
+        // draws and only recomputed when this group or one of its parents changed.
         private final Matrix mStackedMatrix = new Matrix();
+        private boolean mStackedMatrixDirty = true;
+
+        // mFinalMatrix is mStackedMatrix followed by the viewport scale, cached
+        // for the last scale it was requested with.
+        private final Matrix mFinalMatrix = new Matrix();
+        private boolean mFinalMatrixDirty = true;
+        private float mFinalScaleX;
+        private float mFinalScaleY;
+        // Incremented every time mFinalMatrix is recomputed.
+        int mFinalMatrixVersion;
+        // The path tolerance of mFinalMatrix, see VectorDrawable.getPathTolerance().
+        float mFinalPathTolerance;
 
         /////////////////////////////////////////////////////
         // Variables below need to be copied (deep copy if applicable) for mutation.
@@ -923,13 +1873,21 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
         private float mTranslateY = 0;
 
         // mLocalMatrix is updated based on the update of transformation information,
-        // either parsed from the XML or by animation.
+        // either parsed from the XML or by animation. Setters only mark it dirty,
+        // it is rebuilt once before the next draw however many properties changed.
         private final Matrix mLocalMatrix = new Matrix();
+        private boolean mLocalMatrixDirty;
         private int mChangingConfigurations;
         private int[] mThemeAttrs;
         private String mGroupName = null;
 
-        public VGroup(VGroup copy, ArrayMap<String, Object> targetsMap) {
+        // The renderer allowed to modify this group, see VPathRenderer.mOwner.
+        Object mOwner;
+
+        /**
+         * Copy a group, sharing its children with the original.
+         */
+        public VGroup(VGroup copy) {
             mRotate = copy.mRotate;
             mPivotX = copy.mPivotX;
             mPivotY = copy.mPivotY;
@@ -940,33 +1898,11 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
             mThemeAttrs = copy.mThemeAttrs;
             mGroupName = copy.mGroupName;
             mChangingConfigurations = copy.mChangingConfigurations;
-            if (mGroupName != null) {
-                targetsMap.put(mGroupName, this);
-            }
 
             mLocalMatrix.set(copy.mLocalMatrix);
+            mLocalMatrixDirty = copy.mLocalMatrixDirty;
 
-            final ArrayList<Object> children = copy.mChildren;
-            for (int i = 0; i < children.size(); i++) {
-                Object copyChild = children.get(i);
-                if (copyChild instanceof VGroup) {
-                    VGroup copyGroup = (VGroup) copyChild;
-                    mChildren.add(new VGroup(copyGroup, targetsMap));
-                } else {
-                    VPath newPath = null;
-                    if (copyChild instanceof VFullPath) {
-                        newPath = new VFullPath((VFullPath) copyChild);
-                    } else if (copyChild instanceof VClipPath) {
-                        newPath = new VClipPath((VClipPath) copyChild);
-                    } else {
-                        throw new IllegalStateException("Unknown object in the tree!");
-                    }
-                    mChildren.add(newPath);
-                    if (newPath.mPathName != null) {
-                        targetsMap.put(newPath.mPathName, newPath);
-                    }
-                }
-            }
+            mChildren.addAll(copy.mChildren);
         }
 
         public VGroup() {
@@ -977,6 +1913,7 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
         }
 
         public Matrix getLocalMatrix() {
+            updateLocalMatrixIfNeeded();
             return mLocalMatrix;
         }
 
@@ -1008,7 +1945,7 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
                 mGroupName = groupName;
             }
 
-            updateLocalMatrix();
+            mLocalMatrixDirty = true;
         }
 
         public boolean canApplyTheme() {
@@ -1026,7 +1963,10 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
 //            a.recycle();
         }
 
-        private void updateLocalMatrix() {
+        private void updateLocalMatrixIfNeeded() {
+            if (!mLocalMatrixDirty) {
+                return;
+            }
             // The order we apply is the same as the
             // RenderNode.cpp::applyViewPropertyTransforms().
             mLocalMatrix.reset();
@@ -1034,6 +1974,45 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
             mLocalMatrix.postScale(mScaleX, mScaleY);
             mLocalMatrix.postRotate(mRotate, 0, 0);
             mLocalMatrix.postTranslate(mTranslateX + mPivotX, mTranslateY + mPivotY);
+            mLocalMatrixDirty = false;
+            mStackedMatrixDirty = true;
+        }
+
+        /**
+         * Recompute mStackedMatrix if this group's transformation or the parent's
+         * stacked matrix changed since the last draw.
+         *
+         * @param parentMatrix The parent's stacked matrix.
+         * @param parentMatrixChanged Whether <code>parentMatrix</code> changed since the last draw.
+         * @return whether mStackedMatrix changed, so the children must update theirs.
+         */
+        boolean updateStackedMatrix(Matrix parentMatrix, boolean parentMatrixChanged) {
+            updateLocalMatrixIfNeeded();
+            if (!parentMatrixChanged && !mStackedMatrixDirty) {
+                return false;
+            }
+            mStackedMatrix.set(parentMatrix);
+            mStackedMatrix.preConcat(mLocalMatrix);
+            mStackedMatrixDirty = false;
+            mFinalMatrixDirty = true;
+            return true;
+        }
+
+        /**
+         * @return mStackedMatrix post scaled by the viewport scale, only
+         * recomputed when either of them changed.
+         */
+        Matrix getFinalMatrix(float scaleX, float scaleY) {
+            if (mFinalMatrixDirty || scaleX != mFinalScaleX || scaleY != mFinalScaleY) {
+                mFinalMatrix.set(mStackedMatrix);
+                mFinalMatrix.postScale(scaleX, scaleY);
+                mFinalScaleX = scaleX;
+                mFinalScaleY = scaleY;
+                mFinalMatrixDirty = false;
+                mFinalMatrixVersion++;
+                mFinalPathTolerance = getPathTolerance(mFinalMatrix);
+            }
+            return mFinalMatrix;
         }
 
         /* Setters and Getters, used by animator from AnimatedVectorDrawable. */
@@ -1046,7 +2025,7 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
         public void setRotation(float rotation) {
             if (rotation != mRotate) {
                 mRotate = rotation;
-                updateLocalMatrix();
+                mLocalMatrixDirty = true;
             }
         }
 
@@ -1059,7 +2038,7 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
         public void setPivotX(float pivotX) {
             if (pivotX != mPivotX) {
                 mPivotX = pivotX;
-                updateLocalMatrix();
+                mLocalMatrixDirty = true;
             }
         }
 
@@ -1072,7 +2051,7 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
         public void setPivotY(float pivotY) {
             if (pivotY != mPivotY) {
                 mPivotY = pivotY;
-                updateLocalMatrix();
+                mLocalMatrixDirty = true;
             }
         }
 
@@ -1085,7 +2064,7 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
         public void setScaleX(float scaleX) {
             if (scaleX != mScaleX) {
                 mScaleX = scaleX;
-                updateLocalMatrix();
+                mLocalMatrixDirty = true;
             }
         }
 
@@ -1098,7 +2077,7 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
         public void setScaleY(float scaleY) {
             if (scaleY != mScaleY) {
                 mScaleY = scaleY;
-                updateLocalMatrix();
+                mLocalMatrixDirty = true;
             }
         }
 
@@ -1111,7 +2090,7 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
         public void setTranslateX(float translateX) {
             if (translateX != mTranslateX) {
                 mTranslateX = translateX;
-                updateLocalMatrix();
+                mLocalMatrixDirty = true;
             }
         }
 
@@ -1124,7 +2103,7 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
         public void setTranslateY(float translateY) {
             if (translateY != mTranslateY) {
                 mTranslateY = translateY;
-                updateLocalMatrix();
+                mLocalMatrixDirty = true;
             }
         }
     }
@@ -1133,10 +2112,63 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
      * Common Path information for clip path and normal path.
      */
     private static class VPath {
-        protected PathParser.PathDataNode[] mNodes = null;
+        // Path morph animators set a PathMorph on every frame, see
+        // PathAnimatorInflater, other values are plain PathData.
+        static final Property<VPath, Object> PATH_DATA =
+                new Property<VPath, Object>(Object.class, "pathData") {
+                    @Override
+                    public Object get(VPath object) {
+                        // Read once as the start or end of an animation, which
+                        // keeps referencing it while mPathData changes.
+                        return PathParser.deepCopyPathData(object.getPathData());
+                    }
+
+                    @Override
+                    public void set(VPath object, Object value) {
+                        if (value instanceof PathParser.PathMorph) {
+                            object.setPathMorph((PathParser.PathMorph) value);
+                        } else {
+                            object.setPathData((PathParser.PathData) value);
+                        }
+                    }
+                };
+
+        // mPath is built from mPathData and cached across draws, it is only
+        // rebuilt after the path data changed.
+        private final Path mPath = new Path();
+        private boolean mPathDirty = true;
+        // The tolerance mPath was built with.
+        private float mPathTolerance;
+        // Incremented every time the Path returned by getPath() may change.
+        int mPathVersion;
+        // The simple shape mPathData draws and its geometry, see getShape().
+        private int mShape;
+        private boolean mShapeDirty = true;
+        final RectF mShapeBounds = new RectF();
+
+        // The renderer allowed to modify this path, see VPathRenderer.mOwner.
+        Object mOwner;
+
+        // The last PathData set on this path, its layout matches mPathData's.
+        PathParser.PathData mVerifiedPathData;
+
+        /////////////////////////////////////////////////////
+        // Variables below need to be copied (deep copy if applicable) for mutation.
+        protected PathParser.PathData mPathData = null;
         String mPathName;
         int mChangingConfigurations;
 
+        // While a morph animation runs, the path is built straight from its
+        // start and end values rather than interpolated into mPathData first.
+        // mPathData is only brought up to date when it is asked for.
+        private PathParser.PathData mMorphFrom;
+        private PathParser.PathData mMorphTo;
+        private float mMorphFraction;
+        // The Path baked by the animator for this morph state, if any.
+        private Path mMorphPath;
+        // Reused by every morph frame, see PathParser.PathData#getMorphScratchSize().
+        private float[] mMorphScratch;
+
         public VPath() {
             // Empty constructor.
         }
@@ -1144,16 +2176,77 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
         public VPath(VPath copy) {
             mPathName = copy.mPathName;
             mChangingConfigurations = copy.mChangingConfigurations;
-            mNodes = PathParser.deepCopyNodes(copy.mNodes);
+            mPathData = PathParser.deepCopyPathData(copy.mPathData);
+            // The morph values are never modified, they can be shared.
+            mMorphFrom = copy.mMorphFrom;
+            mMorphTo = copy.mMorphTo;
+            mMorphFraction = copy.mMorphFraction;
+            mMorphPath = copy.mMorphPath;
         }
 
         public void toPath(Path path) {
+            toPath(path, 0);
+        }
+
+        /**
+         * @param tolerance How far arcs may deviate from the exact shape, in
+         *                  viewport units, see PathParser.PathData#toPath(Path, float).
+         */
+        public void toPath(Path path, float tolerance) {
             path.reset();
-            if (mNodes != null) {
-                PathParser.PathDataNode.nodesToPath(mNodes, path);
+            if (mMorphFrom != null) {
+                final int scratchSize = mMorphFrom.getMorphScratchSize();
+                if (mMorphScratch == null || mMorphScratch.length < scratchSize) {
+                    mMorphScratch = new float[scratchSize];
+                }
+                mMorphFrom.toPath(path, mMorphTo, mMorphFraction, tolerance, mMorphScratch);
+            } else if (mPathData != null) {
+                mPathData.toPath(path, tolerance);
             }
         }
 
+        /**
+         * @return the Path for the current path data, only rebuilt when the
+         * data changed or the Path is coarser than <code>tolerance</code>
+         * since the previous call. A finer Path is kept, so that copies
+         * sharing this path at different sizes don't rebuild it in turn.
+         * Must not be modified.
+         */
+        public Path getPath(float tolerance) {
+            if (mMorphPath != null) {
+                return mMorphPath;
+            }
+            if (mPathDirty || tolerance < mPathTolerance) {
+                if (!mPathDirty) {
+                    mPathVersion++;
+                }
+                toPath(mPath, tolerance);
+                mPathTolerance = tolerance;
+                mPathDirty = false;
+            }
+            return mPath;
+        }
+
+        void invalidatePath() {
+            mPathDirty = true;
+            mShapeDirty = true;
+            mPathVersion++;
+        }
+
+        /**
+         * @return which simple shape this path is, see PathParser#getShape(),
+         * with its geometry in mShapeBounds. Only classified again once the
+         * data changed. Morphing paths are always drawn as paths.
+         */
+        int getShape() {
+            if (mShapeDirty) {
+                mShape = mPathData != null && mMorphFrom == null
+                        ? PathParser.getShape(mPathData, mShapeBounds) : PathParser.SHAPE_PATH;
+                mShapeDirty = false;
+            }
+            return mShape;
+        }
+
         public String getPathName() {
             return mPathName;
         }
@@ -1171,18 +2264,76 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
 
         /* Setters and Getters, used by animator from AnimatedVectorDrawable. */
         @SuppressWarnings("unused")
-        public PathParser.PathDataNode[] getPathData() {
-            return mNodes;
+        public PathParser.PathData getPathData() {
+            if (mMorphFrom != null) {
+                // Bring mPathData to the shape currently drawn.
+                if (!PathParser.canMorph(mPathData, mMorphFrom)) {
+                    mPathData = PathParser.deepCopyPathData(mMorphFrom);
+                }
+                mPathData.interpolatePathData(mMorphFrom, mMorphTo, mMorphFraction);
+                mVerifiedPathData = null;
+                clearPathMorph();
+            }
+            return mPathData;
+        }
+
+        /**
+         * Show the given state of a morph animation. Unlike setPathData(), the
+         * values are not interpolated here, the path is built from them by
+         * getPath() in a single pass, or not at all when the animator baked it.
+         */
+        public void setPathMorph(PathParser.PathMorph morph) {
+            mMorphFrom = morph.mFrom;
+            mMorphTo = morph.mTo;
+            mMorphFraction = morph.mFraction;
+            mMorphPath = morph.mPath;
+            invalidatePath();
+        }
+
+        /**
+         * @return whether the coordinates of this path can be transformed at
+         * inflate time, i.e. no animator or theme will set its data later.
+         */
+        boolean canTransformPathData() {
+            return mPathName == null && !canApplyTheme() && mPathData != null;
+        }
+
+        /**
+         * Bake a transformation into the coordinates of this path.
+         */
+        void transformPathData(Matrix matrix) {
+            mPathData = PathParser.transformPathData(mPathData, matrix);
+            mVerifiedPathData = null;
+            invalidatePath();
+        }
+
+        void clearPathMorph() {
+            mMorphFrom = null;
+            mMorphTo = null;
+            mMorphPath = null;
         }
 
         @SuppressWarnings("unused")
-        public void setPathData(PathParser.PathDataNode[] nodes) {
-            if (!PathParser.canMorph(mNodes, nodes)) {
+        public void setPathData(PathParser.PathData pathData) {
+            if (pathData == null) {
+                // No data draws nothing, as before the data was packed.
+                mPathData = null;
+                mVerifiedPathData = null;
+                clearPathMorph();
+                invalidatePath();
+                return;
+            }
+            // Animation frames keep passing the evaluator's PathData, which was
+            // already checked to have the same layout.
+            if (pathData != mVerifiedPathData && !PathParser.canMorph(mPathData, pathData)) {
                 // This should not happen in the middle of animation.
-                mNodes = PathParser.deepCopyNodes(nodes);
+                mPathData = PathParser.deepCopyPathData(pathData);
             } else {
-                PathParser.updateNodes(mNodes, nodes);
+                mPathData.setPathData(pathData);
             }
+            mVerifiedPathData = pathData;
+            clearPathMorph();
+            invalidatePath();
         }
     }
 
@@ -1194,10 +2345,37 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
             // Empty constructor.
         }
 
+        // The path transformed by its group's final matrix, kept until either
+        // of them changes.
+        private Path mTransformedPath;
+        private VGroup mTransformedGroup;
+        private int mTransformedMatrixVersion;
+        private int mTransformedPathVersion;
+
         public VClipPath(VClipPath copy) {
             super(copy);
         }
 
+        /**
+         * @return the path as it is applied to the canvas, only rebuilt when
+         * the path data or the group's final matrix changed since the last call.
+         */
+        Path getTransformedPath(VGroup group, Matrix finalMatrix, float tolerance) {
+            final Path path = getPath(tolerance);
+            if (mTransformedPath == null) {
+                mTransformedPath = new Path();
+            } else if (group == mTransformedGroup
+                    && group.mFinalMatrixVersion == mTransformedMatrixVersion
+                    && mPathVersion == mTransformedPathVersion) {
+                return mTransformedPath;
+            }
+            path.transform(finalMatrix, mTransformedPath);
+            mTransformedGroup = group;
+            mTransformedMatrixVersion = group.mFinalMatrixVersion;
+            mTransformedPathVersion = mPathVersion;
+            return mTransformedPath;
+        }
+
         public void inflate(Resources r, AttributeSet attrs, Theme theme) {
             final TypedArray a = obtainAttributes(r, theme, attrs,
                     R.styleable.VectorDrawableClipPath);
@@ -1216,7 +2394,10 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
 
             final String pathData = a.getString(R.styleable.VectorDrawableClipPath_vc_pathData);
             if (pathData != null) {
-                mNodes = PathParser.createNodesFromPathData(pathData);
+                mPathData = PathParser.createPathDataFromPathData(pathData);
+                mVerifiedPathData = null;
+                clearPathMorph();
+                invalidatePath();
             }
         }
 
@@ -1249,6 +2430,12 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
         Paint.Join mStrokeLineJoin = Paint.Join.MITER;
         float mStrokeMiterlimit = 4;
 
+        // The measure of the trimmed path and its length, kept until the path
+        // changes. Not copied, each copy measures its own path.
+        private PathMeasure mPathMeasure;
+        private int mMeasuredPathVersion;
+        float mPathLength;
+
         public VFullPath() {
             // Empty constructor.
         }
@@ -1272,6 +2459,30 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
             mStrokeMiterlimit = copy.mStrokeMiterlimit;
         }
 
+        /**
+         * @param path The Path last returned by getPath().
+         * @return a PathMeasure set to <code>path</code>, whose length is stored
+         * in mPathLength. It is only measured again once the path changed.
+         */
+        PathMeasure getPathMeasure(Path path) {
+            if (mPathMeasure == null) {
+                mPathMeasure = new PathMeasure();
+            } else if (mMeasuredPathVersion == mPathVersion) {
+                return mPathMeasure;
+            }
+            mPathMeasure.setPath(path, false);
+            mPathLength = mPathMeasure.getLength();
+            mMeasuredPathVersion = mPathVersion;
+            return mPathMeasure;
+        }
+
+        @Override
+        boolean canTransformPathData() {
+            // Trimming is relative to the length of the untransformed path.
+            return super.canTransformPathData() && mTrimPathStart == 0
+                    && mTrimPathEnd == 1 && mTrimPathOffset == 0;
+        }
+
         private Paint.Cap getStrokeLineCap(int id, Paint.Cap defValue) {
             switch (id) {
                 case LINECAP_BUTT:
@@ -1325,7 +2536,10 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
 
             final String pathData = a.getString(R.styleable.VectorDrawablePath_vc_pathData);
             if (pathData != null) {
-                mNodes = PathParser.createNodesFromPathData(pathData);
+                mPathData = PathParser.createPathDataFromPathData(pathData);
+                mVerifiedPathData = null;
+                clearPathMorph();
+                invalidatePath();
             }
 
             mFillColor = a.getColor(R.styleable.VectorDrawablePath_vc_fillColor, mFillColor);
@@ -1355,82 +2569,82 @@ public class VectorDrawable extends DrawableCompat implements Tintable{
 
         /* Setters and Getters, used by animator from AnimatedVectorDrawable. */
         @SuppressWarnings("unused")
-        int getStrokeColor() {
+        public int getStrokeColor() {
             return mStrokeColor;
         }
 
         @SuppressWarnings("unused")
-        void setStrokeColor(int strokeColor) {
+        public void setStrokeColor(int strokeColor) {
             mStrokeColor = strokeColor;
         }
 
         @SuppressWarnings("unused")
-        float getStrokeWidth() {
+        public float getStrokeWidth() {
             return mStrokeWidth;
         }
 
         @SuppressWarnings("unused")
-        void setStrokeWidth(float strokeWidth) {
+        public void setStrokeWidth(float strokeWidth) {
             mStrokeWidth = strokeWidth;
         }
 
         @SuppressWarnings("unused")
-        float getStrokeAlpha() {
+        public float getStrokeAlpha() {
             return mStrokeAlpha;
         }
 
         @SuppressWarnings("unused")
-        void setStrokeAlpha(float strokeAlpha) {
+        public void setStrokeAlpha(float strokeAlpha) {
             mStrokeAlpha = strokeAlpha;
         }
 
         @SuppressWarnings("unused")
-        int getFillColor() {
+        public int getFillColor() {
             return mFillColor;
         }
 
         @SuppressWarnings("unused")
-        void setFillColor(int fillColor) {
+        public void setFillColor(int fillColor) {
             mFillColor = fillColor;
         }
 
         @SuppressWarnings("unused")
-        float getFillAlpha() {
+        public float getFillAlpha() {
             return mFillAlpha;
         }
 
         @SuppressWarnings("unused")
-        void setFillAlpha(float fillAlpha) {
+        public void setFillAlpha(float fillAlpha) {
             mFillAlpha = fillAlpha;
         }
 
         @SuppressWarnings("unused")
-        float getTrimPathStart() {
+        public float getTrimPathStart() {
             return mTrimPathStart;
         }
 
         @SuppressWarnings("unused")
-        void setTrimPathStart(float trimPathStart) {
+        public void setTrimPathStart(float trimPathStart) {
             mTrimPathStart = trimPathStart;
         }
 
         @SuppressWarnings("unused")
-        float getTrimPathEnd() {
+        public float getTrimPathEnd() {
             return mTrimPathEnd;
         }
 
         @SuppressWarnings("unused")
-        void setTrimPathEnd(float trimPathEnd) {
+        public void setTrimPathEnd(float trimPathEnd) {
             mTrimPathEnd = trimPathEnd;
         }
 
         @SuppressWarnings("unused")
-        float getTrimPathOffset() {
+        public float getTrimPathOffset() {
             return mTrimPathOffset;
         }
 
         @SuppressWarnings("unused")
-        void setTrimPathOffset(float trimPathOffset) {
+        public void setTrimPathOffset(float trimPathOffset) {
             mTrimPathOffset = trimPathOffset;
         }
     }